@@ -3,17 +3,23 @@ package scc;
 import java.util.HashSet;
 import java.util.Set;
 import jakarta.ws.rs.core.Application;
+import scc.cache.ServiceRegistry;
 import scc.srv.*;
 
 public class MainApplication extends Application {
 	private final Set<Class<?>> resources = new HashSet<>();
 
 	public MainApplication() {
+		// Build the services on deploy rather than within the first request
+		ServiceRegistry.getInstance();
+
 		resources.add(HouseResource.class);
 		resources.add(RentalResource.class);
 		resources.add(QuestionResource.class);
 		resources.add(AnswerResource.class);
 		resources.add(UserResource.class);
+		resources.add(AdminResource.class);
+		resources.add(RequestContextFilter.class);
 	}
 
 	@Override
@@ -1,38 +1,209 @@
 package scc.cache;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.SetParams;
 import scc.persistence.db.Container;
 import scc.utils.Constants;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public abstract class AbstractService<T extends Identifiable, C extends Container<T>> {
+    // Cached in place of ids which do not exist, never a valid encoding of an entity
+    protected static final byte[] MISSING_VALUE = {(byte) 0xFD};
+    // Sets KEYS[1] to ARGV[2] with a TTL of ARGV[3] seconds, only if it still holds ARGV[1]
+    private static final byte[] REPLACE_IF_UNCHANGED = ("if redis.call('GET', KEYS[1]) == ARGV[1] then "
+            + "return redis.call('SET', KEYS[1], ARGV[2], 'EX', ARGV[3]) end return false").getBytes(StandardCharsets.UTF_8);
+    // Runs the blocking database calls of the async variants and the background reloads
+    protected static final ExecutorService loaders = createLoaders();
+
     protected final C container;
     private final Class<T> type;
-    protected final ObjectMapper mapper = new ObjectMapper();
+    protected final CacheCodec codec = CacheCodec.getInstance();
     private final String cachingPrefix;
+    private final NearCache nearCache;
+    private final CachePolicy policy;
+    private final HotKeys hotKeys = new HotKeys();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
 
     public AbstractService(Class<T> type, String cachingPrefix, C container) {
         this.type = type;
         this.cachingPrefix = cachingPrefix;
         this.container = container;
+        this.nearCache = NearCache.forPrefix(cachingPrefix);
+        this.policy = CachePolicy.forPrefix(cachingPrefix);
     }
 
     public ServiceResponse<T> getByID(String id) {
-        Optional<T> cache = getFromCacheByID(id);
-        if (cache.isPresent()) { // Cache hit
-            return new ServiceResponse<>(200, cache.get());
+        boolean hot = hotKeys.recordRead(id);
+
+        CacheLookup<T> cache = lookupInCache(id);
+        if (cache.isHit()) { // Cache hit
+            if (hot && policy.isDueForRefresh(cache.getTtlMillis())) {
+                refreshAhead(id);
+            }
+            return new ServiceResponse<>(200, cache.getItem().get());
+        }
+        if (cache.isMissing()) { // Known not to exist
+            return new ServiceResponse<>(404);
         }
 
-        // Cache miss
-        ServiceResponse<T> response = container.getByID(id);
-        Optional<T> item = response.getItem();
+        return loadByID(id);
+    }
 
-        // Cache item
-        item.ifPresent(this::writeToCache);
+    /**
+     * Non-blocking variant of getByID: the Redis lookup is queued on the shared async pipeline,
+     * and on a miss the database is queried on the loader pool
+     */
+    public CompletableFuture<ServiceResponse<T>> getByIDAsync(String id) {
+        if (!Constants.cachingEnabled)
+            return CompletableFuture.supplyAsync(() -> loadByID(id), loaders);
 
-        return response;
+        CacheLookup<T> local = lookupInNearCache(id);
+        if (local.isHit() || local.isMissing())
+            return CompletableFuture.completedFuture(toResponse(local));
+
+        return AsyncRedisCache.getInstance()
+                .get(cacheKey(id))
+                // Decode on the loader pool, keeping the dispatcher thread free for sending commands
+                .handleAsync((cacheValue, error) -> error == null ? fromCacheValue(id, cacheValue, -1) : CacheLookup.<T>unknown(), loaders)
+                .thenCompose(cache -> cache.isHit() || cache.isMissing()
+                        ? CompletableFuture.completedFuture(toResponse(cache))
+                        : CompletableFuture.supplyAsync(() -> loadByID(id), loaders));
+    }
+
+    // Cache miss, only one concurrent caller per id goes to the database
+    private ServiceResponse<T> loadByID(String id) {
+        return SingleFlight.execute(cachingPrefix + id, () -> {
+            ServiceResponse<T> response = container.getByID(id);
+            Optional<T> item = response.getItem();
+
+            // Cache item, or remember that it does not exist
+            if (item.isPresent()) {
+                fillCache(item.get(), id);
+            } else if (response.getStatusCode() == 404) {
+                fillMissing(id);
+            }
+
+            return response;
+        });
+    }
+
+    /**
+     * Reloads a frequently read entry in the background before it expires, so its readers
+     * never wait on the database. At most one reload per id runs at a time.
+     */
+    private void refreshAhead(String id) {
+        if (!refreshing.add(id)) return;
+
+        try {
+            loaders.execute(() -> {
+                try {
+                    refresh(id);
+                } catch (Exception ignored) {
+                    // The entry expires as usual and is loaded by the next reader
+                } finally {
+                    refreshing.remove(id);
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshing.remove(id);
+        }
+    }
+
+    /**
+     * Replaces the cached entry with the item read again from the database, with a new TTL, unless the entry
+     * changed meanwhile: a write cached between the read and the replace is newer than the item read, and is kept.
+     * Redis compares the entry with the one seen before the read in a script, the near cache compares its entry.
+     */
+    void refresh(String id) {
+        Object cachedLocally = nearCache.peek(id);
+        byte[] cached;
+        boolean redisAvailable;
+        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+            cached = jedis.get(cacheKey(id));
+            redisAvailable = true;
+        } catch (Exception e) {
+            cached = null;
+            redisAvailable = false;
+        }
+
+        // Expired or deleted meanwhile, the next reader loads it as usual
+        if (redisAvailable && (cached == null || Arrays.equals(cached, MISSING_VALUE)))
+            return;
+
+        Optional<T> item = container.getByID(id).getItem();
+        if (item.isEmpty())
+            return; // Deleted, the delete replaced the entries itself
+
+        long ttlSeconds = policy.nextTtlSeconds();
+        if (redisAvailable) {
+            try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+                Object replaced = jedis.eval(REPLACE_IF_UNCHANGED, 1, cacheKey(id), cached, codec.encode(item.get()),
+                        Long.toString(ttlSeconds).getBytes(StandardCharsets.UTF_8));
+                if (replaced == null)
+                    return; // Written meanwhile
+            } catch (Exception ignored) {
+                return;
+            }
+        }
+
+        nearCache.replace(id, cachedLocally, item.get(), expiresAt(ttlSeconds));
+    }
+
+    private static <T> ServiceResponse<T> toResponse(CacheLookup<T> cache) {
+        return cache.isHit() ? new ServiceResponse<>(200, cache.getItem().get()) : new ServiceResponse<>(404);
+    }
+
+    /**
+     * Fetches several items at once: near cache first, then a single MGET to Redis,
+     * then a single query to the database for the remaining ids
+     * @return the items found, in the order of the given ids
+     */
+    public ServiceResponse<List<T>> getByIDs(Collection<String> ids) {
+        Map<String, T> found = new HashMap<>();
+        Set<String> knownMissing = new HashSet<>();
+        Set<String> missing = new LinkedHashSet<>(ids);
+
+        found.putAll(getFromCacheByIDs(missing, knownMissing));
+        missing.removeAll(found.keySet());
+        missing.removeAll(knownMissing);
+
+        if (!missing.isEmpty()) {
+            ServiceResponse<List<T>> response = container.getByIDs(missing);
+            if (response.getItem().isEmpty())
+                return new ServiceResponse<>(response.getStatusCode());
+
+            List<T> loaded = response.getItem().get();
+            loaded.forEach(item -> found.put(item.getId(), item));
+            missing.removeAll(found.keySet());
+            fillCache(loaded, missing);
+        }
+
+        List<T> items = new LinkedHashSet<>(ids)
+                .stream()
+                .filter(found::containsKey)
+                .map(found::get)
+                .toList();
+
+        return new ServiceResponse<>(200, items);
     }
 
     public ServiceResponse<T> upsert(T object) {
@@ -45,55 +216,272 @@ public abstract class AbstractService<T extends Identifiable, C extends Containe
         return response;
     }
 
+    /**
+     * Non-blocking variant of upsert, the write runs on the loader pool
+     */
+    public CompletableFuture<ServiceResponse<T>> upsertAsync(T object) {
+        return CompletableFuture.supplyAsync(() -> upsert(object), loaders);
+    }
+
     public ServiceResponse<Object> deleteByID(String id) {
         ServiceResponse<Object> response = container.deleteByID(id);
-        deleteFromCache(id);
+
+        // A failed delete leaves the item in place, and its cached entries with it
+        if (response.getStatusCode() < 300) {
+            writeMissingToCache(id);
+        }
 
         return response;
     }
 
     /////////////////// CACHING METHODS ///////////////////////
 
+    // Caches an item just written, and drops it from the near caches of the other nodes
     protected void writeToCache(T object) {
+        writeToCache(object, object.getId());
+    }
+
+    protected void writeToCache(T object, String cacheID) {
         if (!Constants.cachingEnabled) return;
 
+        long ttlSeconds = policy.nextTtlSeconds();
+        nearCache.put(cacheID, object, expiresAt(ttlSeconds));
+
         try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.set(cachingPrefix + object.getId(), mapper.writeValueAsString(object));
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.set(cacheKey(cacheID), codec.encode(object), policy.setParams(ttlSeconds));
+            CacheInvalidation.getInstance().publish(pipeline, cachingPrefix, cacheID);
+            pipeline.sync();
         } catch (Exception ignored) {
             // Do nothing
         }
     }
 
-    protected void writeToCache(T object, String cacheID) {
+    /**
+     * Remembers for a short time that the id does not exist, so repeated lookups do not reach the database.
+     * Used once the item was deleted, writing the item to the cache replaces the entry.
+     */
+    protected void writeMissingToCache(String cacheID) {
         if (!Constants.cachingEnabled) return;
 
+        nearCache.putMissing(cacheID, Constants.missingEntryTTLSeconds * 1000L);
+
         try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.set(cachingPrefix + cacheID, mapper.writeValueAsString(object));
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.set(cacheKey(cacheID), MISSING_VALUE, new SetParams().ex(Constants.missingEntryTTLSeconds));
+            CacheInvalidation.getInstance().publish(pipeline, cachingPrefix, cacheID);
+            pipeline.sync();
         } catch (Exception ignored) {
             // Do nothing
         }
     }
 
+    /**
+     * Caches an item read from the database on a miss. Nothing is published, the entries of the
+     * other nodes are as current as this one. Unless replacing, an entry written meanwhile by a write
+     * of the item is newer than the item read, so it is kept (SET NX).
+     */
+    protected void fillCache(T object, String cacheID) {
+        if (!Constants.cachingEnabled) return;
+
+        long ttlSeconds = policy.nextTtlSeconds();
+        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+            if (jedis.set(cacheKey(cacheID), codec.encode(object), policy.setParams(ttlSeconds).nx()) == null)
+                return; // Another entry got in first, it is read from Redis from now on
+        } catch (Exception ignored) {
+            // Redis unavailable, the near cache alone keeps the item
+            nearCache.put(cacheID, object, expiresAt(ttlSeconds));
+            return;
+        }
+
+        nearCache.put(cacheID, object, expiresAt(ttlSeconds));
+    }
+
+    // Caches that an id read on a miss does not exist, keeping an entry written meanwhile
+    protected void fillMissing(String cacheID) {
+        if (!Constants.cachingEnabled) return;
+
+        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+            if (jedis.set(cacheKey(cacheID), MISSING_VALUE, new SetParams().ex(Constants.missingEntryTTLSeconds).nx()) == null)
+                return;
+        } catch (Exception ignored) {
+            // Redis unavailable, the near cache alone remembers it
+        }
+
+        nearCache.putMissing(cacheID, Constants.missingEntryTTLSeconds * 1000L);
+    }
+
+    // Back-fills items freshly loaded from the database, and the ids found not to exist, in a single round trip
+    protected void fillCache(List<T> objects, Collection<String> missingIDs) {
+        if (!Constants.cachingEnabled || (objects.isEmpty() && missingIDs.isEmpty())) return;
+
+        Map<String, Long> ttls = new HashMap<>();
+        objects.forEach(object -> ttls.put(object.getId(), policy.nextTtlSeconds()));
+
+        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            Map<String, Response<String>> stored = new HashMap<>();
+            for (T object : objects) {
+                stored.put(object.getId(), pipeline.set(cacheKey(object.getId()), codec.encode(object), policy.setParams(ttls.get(object.getId())).nx()));
+            }
+            for (String id : missingIDs) {
+                stored.put(id, pipeline.set(cacheKey(id), MISSING_VALUE, new SetParams().ex(Constants.missingEntryTTLSeconds).nx()));
+            }
+            pipeline.sync();
+
+            // Entries which were already there are left to Redis, they may be newer than the items loaded
+            objects.stream()
+                    .filter(object -> stored.get(object.getId()).get() != null)
+                    .forEach(object -> nearCache.put(object.getId(), object, expiresAt(ttls.get(object.getId()))));
+            missingIDs.stream()
+                    .filter(id -> stored.get(id).get() != null)
+                    .forEach(id -> nearCache.putMissing(id, Constants.missingEntryTTLSeconds * 1000L));
+        } catch (Exception ignored) {
+            objects.forEach(object -> nearCache.put(object.getId(), object, expiresAt(ttls.get(object.getId()))));
+            missingIDs.forEach(id -> nearCache.putMissing(id, Constants.missingEntryTTLSeconds * 1000L));
+        }
+    }
+
     protected void deleteFromCache(String cacheID) {
         if (!Constants.cachingEnabled) return;
 
+        nearCache.invalidate(cacheID);
+
         try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.del(cachingPrefix + cacheID);
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.del(cacheKey(cacheID));
+            CacheInvalidation.getInstance().publish(pipeline, cachingPrefix, cacheID);
+            pipeline.sync();
         }
     }
 
+    protected byte[] cacheKey(String cacheID) {
+        return (cachingPrefix + cacheID).getBytes(StandardCharsets.UTF_8);
+    }
+
     protected Optional<T> getFromCacheByID(String cacheID) {
-        if (!Constants.cachingEnabled) return Optional.empty();
+        return lookupInCache(cacheID).getItem();
+    }
+
+    protected CacheLookup<T> lookupInCache(String cacheID) {
+        if (!Constants.cachingEnabled) return CacheLookup.unknown();
+
+        CacheLookup<T> local = lookupInNearCache(cacheID);
+        if (local.isHit() || local.isMissing()) {
+            return local;
+        }
+
+        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+            // The remaining TTL comes within the same round trip, for refreshing hot entries ahead of expiry
+            Pipeline pipeline = jedis.pipelined();
+            Response<byte[]> cacheValue = pipeline.get(cacheKey(cacheID));
+            Response<Long> ttlMillis = pipeline.pttl(cacheKey(cacheID));
+            pipeline.sync();
+
+            return fromCacheValue(cacheID, cacheValue.get(), ttlMillis.get());
+        } catch (Exception ignored) {
+            // Nothing usable cached
+        }
+
+        return CacheLookup.unknown();
+    }
+
+    // Hits report the remaining TTL of the Redis entry when known, so hot entries are refreshed from here too
+    private CacheLookup<T> lookupInNearCache(String cacheID) {
+        Optional<NearCache.Entry> local = nearCache.getEntry(cacheID);
+        if (local.isPresent() && local.get().getValue() == NearCache.MISSING) {
+            return CacheLookup.missing();
+        }
+        if (local.isPresent() && type.isInstance(local.get().getValue())) {
+            return CacheLookup.hit(type.cast(local.get().getValue()), local.get().getRemoteTtlMillis());
+        }
+
+        return CacheLookup.unknown();
+    }
+
+    /**
+     * Interprets the value stored in Redis, keeping a decoded item in the near cache
+     * @param ttlMillis remaining time to live of the entry, as returned by PTTL, negative if not known
+     */
+    private CacheLookup<T> fromCacheValue(String cacheID, byte[] cacheValue, long ttlMillis) {
+        if (cacheValue == null) {
+            return CacheLookup.unknown();
+        }
+        if (Arrays.equals(cacheValue, MISSING_VALUE)) {
+            return CacheLookup.missing();
+        }
+
+        try {
+            T object = codec.decode(cacheValue, type);
+            nearCache.put(cacheID, object, ttlMillis >= 0 ? System.currentTimeMillis() + ttlMillis : 0);
+
+            return CacheLookup.hit(object, ttlMillis);
+        } catch (Exception ignored) {
+            return CacheLookup.unknown();
+        }
+    }
+
+    private Map<String, T> getFromCacheByIDs(Collection<String> cacheIDs, Set<String> knownMissing) {
+        Map<String, T> found = new HashMap<>();
+        if (!Constants.cachingEnabled) return found;
+
+        List<String> remote = new ArrayList<>();
+        for (String cacheID : cacheIDs) {
+            Optional<Object> local = nearCache.get(cacheID);
+            if (local.isPresent() && local.get() == NearCache.MISSING) {
+                knownMissing.add(cacheID);
+            } else if (local.isPresent() && type.isInstance(local.get())) {
+                found.put(cacheID, type.cast(local.get()));
+            } else {
+                remote.add(cacheID);
+            }
+        }
+
+        if (remote.isEmpty()) return found;
 
         try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            String cacheValue = jedis.get(cachingPrefix + cacheID);
-            T object = mapper.readValue(cacheValue, type);
+            List<byte[]> cacheValues = jedis.mget(remote.stream().map(this::cacheKey).toArray(byte[][]::new));
+
+            for (int i = 0; i < remote.size(); i++) {
+                byte[] cacheValue = cacheValues.get(i);
+                if (cacheValue == null) continue;
 
-            return Optional.of(object);
+                if (Arrays.equals(cacheValue, MISSING_VALUE)) {
+                    knownMissing.add(remote.get(i));
+                    continue;
+                }
+
+                try {
+                    T object = codec.decode(cacheValue, type);
+                    nearCache.put(remote.get(i), object);
+                    found.put(remote.get(i), object);
+                } catch (Exception ignored) {
+                    // Treat as a miss
+                }
+            }
         } catch (Exception ignored) {
-            // Return empty optional
+            // Load everything not found locally from the database
         }
 
-        return Optional.empty();
+        return found;
+    }
+
+    private static long expiresAt(long ttlSeconds) {
+        return System.currentTimeMillis() + ttlSeconds * 1000;
+    }
+
+    private static ExecutorService createLoaders() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                Constants.asyncPoolSize, Constants.asyncPoolSize,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "cache-loader");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
     }
 }
@@ -0,0 +1,108 @@
+package scc.cache;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.SetParams;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+
+/**
+ * Non-blocking access to Redis, next to the blocking pool of RedisCache.
+ * Callers only queue their commands and get a future back. A single dispatcher thread takes
+ * everything queued so far and sends it over one connection as a single pipeline, so the commands
+ * of many concurrent requests share one round trip instead of holding a pooled connection each.
+ */
+public class AsyncRedisCache {
+    private static final int MAX_BATCH = 512;
+
+    private static AsyncRedisCache instance;
+    private final BlockingQueue<Command<?>> queue = new LinkedBlockingQueue<>();
+
+    public static synchronized AsyncRedisCache getInstance() {
+        if (instance != null)
+            return instance;
+
+        instance = new AsyncRedisCache();
+
+        return instance;
+    }
+
+    private AsyncRedisCache() {
+        Thread dispatcher = new Thread(this::dispatch, "async-redis-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    public CompletableFuture<byte[]> get(byte[] key) {
+        return execute(pipeline -> pipeline.get(key));
+    }
+
+    public CompletableFuture<String> set(byte[] key, byte[] value, SetParams params) {
+        return execute(pipeline -> pipeline.set(key, value, params));
+    }
+
+    /**
+     * Queues an arbitrary command, which is sent with the next pipeline
+     * @param command queues the command on the given pipeline
+     * @return completed with the reply of the command, or exceptionally if Redis could not be reached
+     */
+    public <R> CompletableFuture<R> execute(Function<Pipeline, Response<R>> command) {
+        Command<R> queued = new Command<>(command);
+        queue.add(queued);
+
+        return queued.future;
+    }
+
+    private void dispatch() {
+        List<Command<?>> batch = new ArrayList<>();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+
+            try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+                Pipeline pipeline = jedis.pipelined();
+                batch.forEach(command -> command.queue(pipeline));
+                pipeline.sync();
+                batch.forEach(Command::complete);
+            } catch (Exception e) {
+                batch.forEach(command -> command.future.completeExceptionally(e));
+            }
+
+            batch.clear();
+        }
+    }
+
+    private static class Command<R> {
+        private final Function<Pipeline, Response<R>> command;
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+        private Response<R> response;
+
+        Command(Function<Pipeline, Response<R>> command) {
+            this.command = command;
+        }
+
+        void queue(Pipeline pipeline) {
+            response = command.apply(pipeline);
+        }
+
+        // A failing command only fails its own future, not the rest of the batch
+        void complete() {
+            try {
+                future.complete(response.get());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package scc.cache;
+
+import scc.data.house.AvailablePeriod;
+import scc.data.house.HouseDAO;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Immutable index of the available periods of one house, at one version of the house.
+ * The periods are sorted by their first day, along with the running maximum of their last days,
+ * so the periods covering a day, or overlapping a window, are found by binary search
+ * instead of walking all periods of the house.
+ */
+public class AvailabilityIndex {
+    private final long version;
+    private final AvailablePeriod[] periods;
+    // maxEndIndex[i] is the period ending last among periods[0..i]
+    private final int[] maxEndIndex;
+
+    public static AvailabilityIndex of(HouseDAO house) {
+        Collection<AvailablePeriod> periods = house.getAvailablePeriods() == null ? List.of() : house.getAvailablePeriods();
+        AvailablePeriod[] sorted = periods.toArray(new AvailablePeriod[0]);
+        Arrays.sort(sorted, Comparator.comparingInt(AvailablePeriod::startDay));
+
+        return new AvailabilityIndex(house.getVersion(), sorted);
+    }
+
+    private AvailabilityIndex(long version, AvailablePeriod[] periods) {
+        this.version = version;
+        this.periods = periods;
+        this.maxEndIndex = new int[periods.length];
+
+        for (int i = 0; i < periods.length; i++) {
+            boolean endsLater = i == 0 || periods[i].endDay() > periods[maxEndIndex[i - 1]].endDay();
+            maxEndIndex[i] = endsLater ? i : maxEndIndex[i - 1];
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    // The periods sorted by their first day
+    public List<AvailablePeriod> getPeriods() {
+        return List.of(periods);
+    }
+
+    /**
+     * Finds an available period fully containing the given days, in O(log n)
+     * @return the period ending last among those starting no later than startDay, if it covers endDay
+     */
+    public Optional<AvailablePeriod> find(long startDay, long endDay) {
+        int last = lastStartingBy(startDay);
+        if (last < 0)
+            return Optional.empty();
+
+        AvailablePeriod candidate = periods[maxEndIndex[last]];
+        return candidate.endDay() >= endDay ? Optional.of(candidate) : Optional.empty();
+    }
+
+    public boolean contains(long startDay, long endDay) {
+        return find(startDay, endDay).isPresent();
+    }
+
+    /**
+     * Returns the parts of the available periods within the given days, cut to these days.
+     * Runs in O(log n + k) for k periods returned.
+     */
+    public List<AvailablePeriod> freeWindows(long fromDay, long toDay) {
+        List<AvailablePeriod> windows = new ArrayList<>();
+        int last = lastStartingBy(toDay);
+
+        // The running maximum only grows, every period before the first one reaching fromDay ends before it
+        for (int i = firstReaching(fromDay, last); i <= last; i++) {
+            AvailablePeriod period = periods[i];
+            if (period.endDay() < fromDay)
+                continue;
+
+            windows.add(period.clip(Math.max(period.startDay(), fromDay), Math.min(period.endDay(), toDay)));
+        }
+
+        return windows;
+    }
+
+    /**
+     * Derives the index of the house after a booking, without sorting the periods again
+     * @param booked the period the booking was taken from
+     * @param remainder the parts of the booked period left available
+     * @param version of the house with the booking
+     */
+    public AvailabilityIndex book(AvailablePeriod booked, Collection<AvailablePeriod> remainder, long version) {
+        AvailablePeriod[] added = remainder.toArray(new AvailablePeriod[0]);
+        Arrays.sort(added, Comparator.comparingInt(AvailablePeriod::startDay));
+
+        AvailablePeriod[] merged = new AvailablePeriod[periods.length - 1 + added.length];
+        int next = 0, a = 0;
+        for (AvailablePeriod period : periods) {
+            if (period == booked)
+                continue;
+
+            while (a < added.length && added[a].startDay() < period.startDay())
+                merged[next++] = added[a++];
+            merged[next++] = period;
+        }
+        while (a < added.length)
+            merged[next++] = added[a++];
+
+        return new AvailabilityIndex(version, merged);
+    }
+
+    // Index of the last period starting on or before the day, -1 if there is none
+    private int lastStartingBy(long day) {
+        int low = 0, high = periods.length - 1, found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (periods[mid].startDay() <= day) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return found;
+    }
+
+    // Index of the first period whose running maximum end reaches the day, at most last + 1
+    private int firstReaching(long day, int last) {
+        int low = 0, high = last, found = last + 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (periods[maxEndIndex[mid]].endDay() >= day) {
+                found = mid;
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+
+        return found;
+    }
+}
@@ -0,0 +1,78 @@
+package scc.cache;
+
+import scc.data.house.AvailablePeriod;
+import scc.data.house.HouseDAO;
+import scc.persistence.db.HouseContainer;
+import scc.utils.Constants;
+
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Reserves periods of houses without any lock. The house is written back with a single
+ * compare-and-set on its version, so of two bookings of the same house read at the same version
+ * only one is stored. The other one reads the house again and retries against its new periods.
+ * Bookings of different houses never wait on each other.
+ */
+public class BookingEngine {
+    private final HouseService houseService;
+    private final HouseContainer container;
+
+    BookingEngine(HouseService houseService, HouseContainer container) {
+        this.houseService = houseService;
+        this.container = container;
+    }
+
+    /**
+     * Removes the given period from the available periods of the house
+     * @return 200 and the available period the booking was taken from,
+     * 404 if there is no such house, 400 if the period is not available,
+     * 409 if the house kept changing during all attempts
+     */
+    public ServiceResponse<AvailablePeriod> reserve(String houseID, LocalDate start, LocalDate end) {
+        // The first attempt reads through the cache, it is usually up to date
+        ServiceResponse<HouseDAO> current = houseService.getByID(houseID);
+
+        for (int attempt = 0; attempt < Constants.bookingMaxAttempts; attempt++) {
+            if (current.getItem().isEmpty())
+                return new ServiceResponse<>(current.getStatusCode() == 200 ? 404 : current.getStatusCode());
+
+            HouseDAO house = current.getItem().get();
+            AvailabilityIndex availability = houseService.availabilityOf(house);
+
+            Optional<AvailablePeriod> period = availability.find(start.toEpochDay(), end.toEpochDay());
+            if (period.isEmpty())
+                return new ServiceResponse<>(400);
+
+            // The periods after the booking come from the index, which is derived without sorting again
+            AvailabilityIndex bookedAvailability = availability.book(period.get(), period.get().subtract(start, end), house.getVersion() + 1);
+
+            HouseDAO booked = new HouseDAO(house);
+            booked.setAvailablePeriods(new HashSet<>(bookedAvailability.getPeriods()));
+
+            ServiceResponse<HouseDAO> response = container.replaceIfVersion(booked, house.getVersion());
+            if (response.getStatusCode() == 200) {
+                houseService.refreshCached(response.getItem().orElse(booked), bookedAvailability);
+                return new ServiceResponse<>(200, period.get());
+            }
+
+            // Lost the race, back off briefly and read the current house from the database
+            backOff(attempt);
+            current = container.getByID(houseID);
+        }
+
+        return new ServiceResponse<>(409);
+    }
+
+    // Random wait growing with the attempts, so retrying writes of the same house spread out
+    static void backOff(int attempt) {
+        long maxMillis = 1L << Math.min(attempt, 6);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxMillis + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package scc.cache;
+
+import redis.clients.jedis.Jedis;
+import scc.utils.Constants;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the health of Redis. After a few consecutive failures the circuit opens:
+ * borrowing a connection then fails at once, so callers skip the cache and go straight
+ * to the database instead of waiting for a timeout on every request.
+ * While open, a background thread pings Redis and closes the circuit once it answers again.
+ */
+public class CacheCircuitBreaker {
+    private static CacheCircuitBreaker instance;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile boolean open = false;
+
+    public static synchronized CacheCircuitBreaker getInstance() {
+        if (instance != null)
+            return instance;
+
+        instance = new CacheCircuitBreaker();
+
+        return instance;
+    }
+
+    CacheCircuitBreaker() {
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public void recordSuccess() {
+        consecutiveFailures.set(0);
+    }
+
+    public void recordFailure() {
+        if (consecutiveFailures.incrementAndGet() >= Constants.cacheFailureThreshold)
+            trip();
+    }
+
+    private synchronized void trip() {
+        if (open)
+            return;
+
+        open = true;
+
+        Thread prober = new Thread(this::probe, "cache-circuit-probe");
+        prober.setDaemon(true);
+        prober.start();
+    }
+
+    // Pings over a connection of its own, as the pool refuses to hand out connections while open
+    private void probe() {
+        while (open) {
+            try {
+                Thread.sleep(Constants.cacheProbeIntervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try (Jedis jedis = new Jedis(Constants.getRedisHostname(), 6379, Constants.redisTimeoutMillis)) {
+                if ("PONG".equals(jedis.ping())) {
+                    consecutiveFailures.set(0);
+                    open = false;
+                }
+            } catch (Exception ignored) {
+                // Still down, probe again later
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package scc.cache;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import scc.utils.Constants;
+
+import java.io.IOException;
+
+/**
+ * Turns cached values into the bytes stored in Redis and back.
+ * Every codec can decode the formats written by the others, so nodes configured
+ * with different codecs (e.g. during a rolling deploy) can share the same cache.
+ */
+public interface CacheCodec {
+    byte[] encode(Object value) throws IOException;
+
+    <T> T decode(byte[] bytes, Class<T> type) throws IOException;
+
+    <T> T decode(byte[] bytes, TypeReference<T> type) throws IOException;
+
+    static CacheCodec getInstance() {
+        return "json".equalsIgnoreCase(Constants.getCacheCodec()) ? JsonCacheCodec.INSTANCE : SmileCacheCodec.INSTANCE;
+    }
+}
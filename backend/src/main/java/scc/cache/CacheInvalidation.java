@@ -0,0 +1,109 @@
+package scc.cache;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import scc.utils.Constants;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the near caches of all backend nodes coherent.
+ * Every write or delete of a cached entity is broadcast over Redis pub/sub,
+ * each node drops the entry from its own near cache when it receives the message.
+ */
+public class CacheInvalidation {
+    public static final String CHANNEL = "near-cache-invalidation";
+    private static final String SEPARATOR = "|";
+    private static final long RESUBSCRIBE_DELAY_MS = 1000;
+
+    private static CacheInvalidation instance;
+    private final String nodeID = UUID.randomUUID().toString();
+    private final Map<String, Consumer<String>> listeners = new ConcurrentHashMap<>();
+    private final List<Runnable> subscribeListeners = new CopyOnWriteArrayList<>();
+
+    public static synchronized CacheInvalidation getInstance() {
+        if (instance != null)
+            return instance;
+
+        instance = new CacheInvalidation();
+
+        return instance;
+    }
+
+    private CacheInvalidation() {
+        Thread listener = new Thread(this::listen, "near-cache-invalidation");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    /**
+     * Queues the invalidation message on the given pipeline, so it is sent
+     * within the same round trip as the write itself.
+     */
+    public void publish(Pipeline pipeline, String prefix, String id) {
+        pipeline.publish(CHANNEL, nodeID + SEPARATOR + prefix + SEPARATOR + id);
+    }
+
+    /**
+     * Routes the messages of the given prefix to the listener instead of the near cache,
+     * for node local state which is not kept in a near cache
+     */
+    public void subscribe(String prefix, Consumer<String> listener) {
+        listeners.put(prefix, listener);
+    }
+
+    /**
+     * Runs the listener every time the node (re)subscribes to the channel, for node local state
+     * which has to catch up with the messages sent while the node was not subscribed
+     */
+    public void onSubscribe(Runnable listener) {
+        subscribeListeners.add(listener);
+    }
+
+    private void listen() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try (Jedis jedis = new Jedis(Constants.getRedisHostname(), 6379)) {
+                jedis.subscribe(new JedisPubSub() {
+                    // Invalidations sent while this node was not subscribed are lost, so nothing cached before is trusted
+                    @Override
+                    public void onSubscribe(String channel, int subscribedChannels) {
+                        NearCache.all().forEach(NearCache::clear);
+                        subscribeListeners.forEach(Runnable::run);
+                    }
+
+                    @Override
+                    public void onMessage(String channel, String message) {
+                        handle(message);
+                    }
+                }, CHANNEL);
+            } catch (Exception ignored) {
+                // Redis unreachable, retry below
+            }
+
+            try {
+                Thread.sleep(RESUBSCRIBE_DELAY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(String message) {
+        String[] parts = message.split("\\" + SEPARATOR, 3);
+        if (parts.length != 3 || parts[0].equals(nodeID))
+            return; // Malformed, or written by this node which already updated its near cache
+
+        Consumer<String> listener = listeners.get(parts[1]);
+        if (listener != null) {
+            listener.accept(parts[2]);
+        } else {
+            NearCache.forPrefix(parts[1]).invalidate(parts[2]);
+        }
+    }
+}
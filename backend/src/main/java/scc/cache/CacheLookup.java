@@ -0,0 +1,62 @@
+package scc.cache;
+
+import java.util.Optional;
+
+/**
+ * Outcome of looking up an id in the cache: the cached item, a cached "does not exist",
+ * or nothing known about the id
+ */
+public class CacheLookup<T> {
+    private static final CacheLookup<?> MISSING = new CacheLookup<>(null, true);
+    private static final CacheLookup<?> UNKNOWN = new CacheLookup<>(null, false);
+
+    private final T item;
+    private final boolean missing;
+    private final long ttlMillis;
+
+    private CacheLookup(T item, boolean missing) {
+        this(item, missing, -1);
+    }
+
+    private CacheLookup(T item, boolean missing, long ttlMillis) {
+        this.item = item;
+        this.missing = missing;
+        this.ttlMillis = ttlMillis;
+    }
+
+    static <T> CacheLookup<T> hit(T item) {
+        return new CacheLookup<>(item, false);
+    }
+
+    static <T> CacheLookup<T> hit(T item, long ttlMillis) {
+        return new CacheLookup<>(item, false, ttlMillis);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> CacheLookup<T> missing() {
+        return (CacheLookup<T>) MISSING;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> CacheLookup<T> unknown() {
+        return (CacheLookup<T>) UNKNOWN;
+    }
+
+    public boolean isHit() {
+        return item != null;
+    }
+
+    // The id was looked up recently and does not exist
+    public boolean isMissing() {
+        return missing;
+    }
+
+    // Remaining time to live of the Redis entry, negative when not known (e.g. for entries read by the async lookup)
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public Optional<T> getItem() {
+        return Optional.ofNullable(item);
+    }
+}
@@ -0,0 +1,49 @@
+package scc.cache;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.bson.types.ObjectId;
+
+import java.io.IOException;
+
+/**
+ * Object mappers used for cache entries.
+ * Mongo ids are written as their hex string, Jackson can not read back the default bean form of ObjectId.
+ */
+class CacheMappers {
+    static ObjectMapper json() {
+        return configure(new ObjectMapper());
+    }
+
+    static ObjectMapper smile() {
+        return configure(new SmileMapper());
+    }
+
+    private static ObjectMapper configure(ObjectMapper mapper) {
+        SimpleModule objectIds = new SimpleModule("ObjectIdAsHex");
+        objectIds.addSerializer(ObjectId.class, new JsonSerializer<>() {
+            @Override
+            public void serialize(ObjectId value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+                generator.writeString(value.toHexString());
+            }
+        });
+        objectIds.addDeserializer(ObjectId.class, new JsonDeserializer<>() {
+            @Override
+            public ObjectId deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+                return new ObjectId(parser.getValueAsString());
+            }
+        });
+
+        return mapper
+                .registerModule(objectIds)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+}
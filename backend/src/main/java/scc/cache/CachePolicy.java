@@ -0,0 +1,124 @@
+package scc.cache;
+
+import redis.clients.jedis.params.GetExParams;
+import redis.clients.jedis.params.SetParams;
+import scc.utils.Constants;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Expiry of the Redis entries of every caching prefix.
+ * Entity entries get a random jitter added to their TTL, so entries written together
+ * (e.g. by a batch back-fill) do not all expire and reload at the same instant.
+ * Sliding entries have their TTL renewed on every read.
+ * Entries with a stale period are kept that much longer than their TTL, to be served
+ * while they are being reloaded in the background (stale-while-revalidate).
+ */
+public class CachePolicy {
+    private static final Map<String, CachePolicy> policies = new LinkedHashMap<>();
+
+    static {
+        register(new CachePolicy("user:", 3600, true, false));
+        register(new CachePolicy("house:", 1800, true, false));
+        register(new CachePolicy("house-view:", 1800, true, false));
+        register(new CachePolicy("rental:", 1800, true, false));
+        register(new CachePolicy("question:", 600, true, false));
+        register(new CachePolicy("house-query:", 300, true, false));
+        register(new CachePolicy("house-tag:", 600, false, false));
+        register(new CachePolicy("discountedNearFuture", 300, 300));
+        register(new CachePolicy("session:", Constants.sessionTTLSeconds, false, true));
+    }
+
+    private final String prefix;
+    private final long ttlSeconds;
+    private final boolean jitter;
+    private final boolean sliding;
+    private final long staleSeconds;
+
+    private CachePolicy(String prefix, long ttlSeconds, boolean jitter, boolean sliding) {
+        this.prefix = prefix;
+        this.ttlSeconds = ttlSeconds;
+        this.jitter = jitter;
+        this.sliding = sliding;
+        this.staleSeconds = 0;
+    }
+
+    private CachePolicy(String prefix, long ttlSeconds, long staleSeconds) {
+        this.prefix = prefix;
+        this.ttlSeconds = ttlSeconds;
+        this.jitter = false;
+        this.sliding = false;
+        this.staleSeconds = staleSeconds;
+    }
+
+    private static void register(CachePolicy policy) {
+        policies.put(policy.prefix, policy);
+    }
+
+    public static CachePolicy forPrefix(String prefix) {
+        CachePolicy policy = policies.get(prefix);
+        if (policy == null)
+            throw new IllegalArgumentException("No cache policy for prefix " + prefix);
+
+        return policy;
+    }
+
+    public static Collection<CachePolicy> all() {
+        return Collections.unmodifiableCollection(policies.values());
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public boolean isSliding() {
+        return sliding;
+    }
+
+    // TTL of an entry written now, including its jitter
+    public long nextTtlSeconds() {
+        if (!jitter)
+            return ttlSeconds;
+
+        long maxJitter = Math.max(1, (long) (ttlSeconds * Constants.cacheTTLJitter));
+        return ttlSeconds + ThreadLocalRandom.current().nextLong(maxJitter + 1);
+    }
+
+    public SetParams setParams() {
+        return setParams(nextTtlSeconds());
+    }
+
+    // Parameters of a write of the given TTL, as returned by nextTtlSeconds
+    public SetParams setParams(long ttlSeconds) {
+        return new SetParams().ex(ttlSeconds + staleSeconds);
+    }
+
+    /**
+     * @param ttlMillis remaining time to live of an entry, as returned by PTTL
+     * @return whether the entry is past its TTL and only kept to be served while it is reloaded
+     */
+    public boolean isStale(long ttlMillis) {
+        return staleSeconds > 0 && ttlMillis >= 0 && ttlMillis < staleSeconds * 1000;
+    }
+
+    /**
+     * @param ttlMillis remaining time to live of an entry, as returned by PTTL
+     * @return whether the entry is close enough to its expiry to be reloaded ahead of it
+     */
+    public boolean isDueForRefresh(long ttlMillis) {
+        return ttlMillis >= 0 && ttlMillis < ttlSeconds * 1000 * Constants.refreshAheadFraction;
+    }
+
+    // Parameters of a read which renews the TTL of a sliding entry
+    public GetExParams renewParams() {
+        return new GetExParams().ex(nextTtlSeconds());
+    }
+}
@@ -0,0 +1,130 @@
+package scc.cache;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Number of keys and estimated memory used in Redis by every caching prefix, for capacity planning.
+ * Keys are counted with SCAN, so the report does not block Redis. Memory is measured
+ * with MEMORY USAGE on a sample of the keys of each prefix and extrapolated to all of them.
+ */
+public class CacheUsageReport {
+    private static final String OTHER = "other";
+    private static final int SCAN_BATCH = 1000;
+    private static final int SAMPLES_PER_PREFIX = 100;
+
+    private final List<Entry> entries;
+
+    private CacheUsageReport(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Walks the whole keyspace, holding a pooled Redis connection until done
+     */
+    public static CacheUsageReport collect() {
+        Map<String, Entry> byPrefix = new LinkedHashMap<>();
+        for (CachePolicy policy : CachePolicy.all()) {
+            byPrefix.put(policy.getPrefix(), new Entry(policy.getPrefix(), policy.getTtlSeconds()));
+        }
+        byPrefix.put(OTHER, new Entry(OTHER, -1));
+
+        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+            ScanParams params = new ScanParams().count(SCAN_BATCH);
+            String cursor = ScanParams.SCAN_POINTER_START;
+
+            do {
+                ScanResult<byte[]> batch = jedis.scan(cursor.getBytes(), params);
+                Pipeline pipeline = jedis.pipelined();
+                Map<Entry, List<Response<Long>>> samples = new LinkedHashMap<>();
+
+                for (byte[] key : batch.getResult()) {
+                    Entry entry = byPrefix.get(prefixOf(new String(key), byPrefix));
+                    entry.keys++;
+
+                    if (entry.sampledKeys + samples.getOrDefault(entry, List.of()).size() < SAMPLES_PER_PREFIX)
+                        samples.computeIfAbsent(entry, e -> new ArrayList<>()).add(pipeline.memoryUsage(key));
+                }
+                pipeline.sync();
+
+                samples.forEach((entry, usages) -> usages.forEach(usage -> {
+                    if (usage.get() != null) {
+                        entry.sampledKeys++;
+                        entry.sampledBytes += usage.get();
+                    }
+                }));
+
+                cursor = batch.getCursor();
+            } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+        }
+
+        return new CacheUsageReport(new ArrayList<>(byPrefix.values()));
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public long getTotalKeys() {
+        return entries.stream().mapToLong(Entry::getKeys).sum();
+    }
+
+    public long getEstimatedTotalBytes() {
+        return entries.stream().mapToLong(Entry::getEstimatedBytes).sum();
+    }
+
+    // Longest caching prefix of the key, as "house-view:" and "house:" share their start
+    private static String prefixOf(String key, Map<String, Entry> byPrefix) {
+        String match = OTHER;
+        for (String prefix : byPrefix.keySet()) {
+            if (key.startsWith(prefix) && (match.equals(OTHER) || prefix.length() > match.length()))
+                match = prefix;
+        }
+
+        return match;
+    }
+
+    /**
+     * Usage of a single caching prefix, keys of no known prefix are reported under "other"
+     */
+    public static class Entry {
+        private final String prefix;
+        private final long ttlSeconds;
+        private long keys;
+        private long sampledKeys;
+        private long sampledBytes;
+
+        Entry(String prefix, long ttlSeconds) {
+            this.prefix = prefix;
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public long getTtlSeconds() {
+            return ttlSeconds;
+        }
+
+        public long getKeys() {
+            return keys;
+        }
+
+        public long getAverageBytes() {
+            return sampledKeys == 0 ? 0 : sampledBytes / sampledKeys;
+        }
+
+        public long getEstimatedBytes() {
+            return getAverageBytes() * keys;
+        }
+    }
+}
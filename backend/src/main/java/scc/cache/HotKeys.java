@@ -0,0 +1,37 @@
+package scc.cache;
+
+import scc.utils.Constants;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the reads of every key within a fixed time window, to tell the frequently read keys apart.
+ * The counts are node local and reset with every window, or when too many keys are tracked.
+ * Every read of the service goes through here, so no lock is taken: concurrent readers of the same
+ * key add to a LongAdder, and a single reader wins the reset of the window.
+ */
+class HotKeys {
+    private final Map<String, LongAdder> reads = new ConcurrentHashMap<>();
+    private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Records a read of the key
+     * @return whether the key was read often enough in the current window to be hot
+     */
+    boolean recordRead(String key) {
+        long now = System.currentTimeMillis();
+        long start = windowStart.get();
+        if ((now - start > Constants.hotKeyWindowMillis || reads.size() >= Constants.nearCacheCapacity)
+                && windowStart.compareAndSet(start, now)) {
+            reads.clear();
+        }
+
+        LongAdder count = reads.computeIfAbsent(key, k -> new LongAdder());
+        count.increment();
+
+        return count.sum() >= Constants.hotKeyThreshold;
+    }
+}
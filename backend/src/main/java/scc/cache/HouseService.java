@@ -1,43 +1,578 @@
 package scc.cache;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.SetParams;
+import scc.data.house.AvailablePeriod;
+import scc.data.house.House;
 import scc.data.house.HouseDAO;
 import scc.persistence.db.HouseContainer;
-import scc.persistence.db.mongo.MongoDBLayer;
+import scc.persistence.db.Page;
+import scc.utils.Constants;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class HouseService extends AbstractService<HouseDAO, HouseContainer> {
-    public HouseService() {
-        super(HouseDAO.class, "house:", MongoDBLayer.getInstance().getHouseContainer());
+    private static final byte[] DISCOUNTED_SOON_KEY = "discountedNearFuture".getBytes(StandardCharsets.UTF_8);
+    private static final String VIEW_PREFIX = "house-view:";
+    private static final String QUERY_PREFIX = "house-query:";
+    private static final String TAG_PREFIX = "house-tag:";
+    private static final String AVAILABILITY_PREFIX = "house-availability:";
+
+    // Writes the public representation of a house exactly as the JAX-RS json provider does
+    private final ObjectMapper viewMapper;
+    private final NearCache viewCache = NearCache.forPrefix(VIEW_PREFIX);
+    // Availability indexes of the recently used houses, each valid for a single version of its house
+    private final NearCache availabilityCache = NearCache.forPrefix(AVAILABILITY_PREFIX);
+    private final CachePolicy viewPolicy = CachePolicy.forPrefix(VIEW_PREFIX);
+    private final CachePolicy queryPolicy = CachePolicy.forPrefix(QUERY_PREFIX);
+    private final CachePolicy tagPolicy = CachePolicy.forPrefix(TAG_PREFIX);
+    private final CachePolicy discountedSoonPolicy = CachePolicy.forPrefix("discountedNearFuture");
+    private final AtomicBoolean revalidatingDiscountedSoon = new AtomicBoolean();
+
+    HouseService(HouseContainer container, ObjectMapper viewMapper) {
+        super(HouseDAO.class, "house:", container);
+        this.viewMapper = viewMapper;
+    }
+
+    @Override
+    public ServiceResponse<HouseDAO> upsert(HouseDAO house) {
+        // The house may move to another city or owner, the searches of both the old and new ones change
+        Optional<HouseDAO> previous = storedVersion(house.getId());
+        // Adjacent periods of the same prices are stored as one, so the period sets do not fragment over time.
+        // The given house may be a cached one, it is left as it is
+        HouseDAO coalesced = new HouseDAO(house);
+        coalesced.setAvailablePeriods(AvailablePeriod.coalesce(house.getAvailablePeriods()));
+        ServiceResponse<HouseDAO> response = super.upsert(coalesced);
+
+        if (response.getStatusCode() < 300 && response.getItem().isPresent()) {
+            writeViewToCache(response.getItem().get());
+            availabilityCache.put(house.getId(), AvailabilityIndex.of(response.getItem().get()));
+
+            Set<String> tags = new HashSet<>(tagsOf(response.getItem().get()));
+            previous.ifPresent(p -> tags.addAll(tagsOf(p)));
+            invalidateQueries(tags);
+        }
+
+        return response;
+    }
+
+    /**
+     * Changes a stored house with a compare-and-set on its version, as bookings do. Unlike upsert,
+     * a change never overwrites a booking stored meanwhile with the periods read before it: on a
+     * conflict the current house is read again and the change applied to it once more.
+     * @param change gets a copy of the current house and returns it changed, or null to give up
+     * @return 200 and the stored house, 404 if there is no such house,
+     * 409 if the change gave up or the house kept changing during all attempts
+     */
+    public ServiceResponse<HouseDAO> update(String id, UnaryOperator<HouseDAO> change) {
+        // The first attempt reads through the cache, it is usually up to date
+        ServiceResponse<HouseDAO> current = getByID(id);
+
+        for (int attempt = 0; attempt < Constants.bookingMaxAttempts; attempt++) {
+            if (current.getItem().isEmpty())
+                return new ServiceResponse<>(current.getStatusCode() == 200 ? 404 : current.getStatusCode());
+
+            HouseDAO house = current.getItem().get();
+            HouseDAO changed = change.apply(new HouseDAO(house));
+            if (changed == null)
+                return new ServiceResponse<>(409);
+
+            changed.setAvailablePeriods(AvailablePeriod.coalesce(changed.getAvailablePeriods()));
+
+            ServiceResponse<HouseDAO> response = container.replaceIfVersion(changed, house.getVersion());
+            if (response.getStatusCode() == 200) {
+                HouseDAO stored = response.getItem().orElse(changed);
+                // The house may have moved to another city or owner, the searches of both the old and new ones change
+                Set<String> tags = new HashSet<>(tagsOf(stored));
+                tags.addAll(tagsOf(house));
+                refreshCached(stored, AvailabilityIndex.of(stored), tags);
+
+                return new ServiceResponse<>(200, stored);
+            }
+
+            // Lost the race, back off briefly and read the current house from the database
+            BookingEngine.backOff(attempt);
+            current = container.getByID(id);
+        }
+
+        return new ServiceResponse<>(409);
+    }
+
+    @Override
+    public ServiceResponse<Object> deleteByID(String id) {
+        Optional<HouseDAO> previous = storedVersion(id);
+        ServiceResponse<Object> response = super.deleteByID(id);
+        if (response.getStatusCode() >= 300)
+            return response;
+
+        writeMissingViewToCache(id);
+        availabilityCache.invalidate(id);
+        previous.ifPresent(p -> invalidateQueries(tagsOf(p)));
+
+        return response;
+    }
+
+    /**
+     * Returns the house as the json bytes sent to the clients. On a cache hit the
+     * bytes are served as stored, without mapping them to and from objects.
+     * @return the json of the public House representation, empty if the house does not exist
+     */
+    public Optional<byte[]> getViewByID(String id) {
+        CacheLookup<byte[]> cached = getViewFromCache(id);
+        if (cached.isHit()) {
+            return cached.getItem();
+        }
+        if (cached.isMissing()) { // Deleted recently, a reader still holding the house must not cache it again
+            return Optional.empty();
+        }
+
+        Optional<HouseDAO> house = getByID(id).getItem();
+        if (house.isEmpty()) {
+            return Optional.empty();
+        }
+
+        return Optional.ofNullable(fillViewCache(house.get()));
+    }
+
+    private CacheLookup<byte[]> getViewFromCache(String id) {
+        if (!Constants.cachingEnabled) return CacheLookup.unknown();
+
+        Optional<Object> local = viewCache.get(id);
+        if (local.isPresent()) {
+            return local.get() == NearCache.MISSING ? CacheLookup.missing() : CacheLookup.hit((byte[]) local.get());
+        }
+
+        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+            byte[] view = jedis.get(viewKey(id));
+            if (view == null) {
+                return CacheLookup.unknown();
+            }
+            if (Arrays.equals(view, MISSING_VALUE)) {
+                return CacheLookup.missing();
+            }
+
+            viewCache.put(id, view);
+            return CacheLookup.hit(view);
+        } catch (Exception ignored) {
+            return CacheLookup.unknown();
+        }
+    }
+
+    // Caches the view of a house just written, and drops it from the near caches of the other nodes
+    private byte[] writeViewToCache(HouseDAO house) {
+        byte[] view;
+        try {
+            view = viewMapper.writeValueAsBytes(new House(house));
+        } catch (Exception e) {
+            return null;
+        }
+
+        if (!Constants.cachingEnabled) return view;
+
+        viewCache.put(house.getId(), view);
+
+        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.set(viewKey(house.getId()), view, viewPolicy.setParams());
+            CacheInvalidation.getInstance().publish(pipeline, VIEW_PREFIX, house.getId());
+            pipeline.sync();
+        } catch (Exception ignored) {
+            // ignore
+        }
+
+        return view;
+    }
+
+    /**
+     * Caches the view of a house read on a miss. As for the items, nothing is published, and a view
+     * written meanwhile by a write of the house is kept (SET NX): the house read may be older than it.
+     */
+    byte[] fillViewCache(HouseDAO house) {
+        byte[] view;
+        try {
+            view = viewMapper.writeValueAsBytes(new House(house));
+        } catch (Exception e) {
+            return null;
+        }
+
+        if (!Constants.cachingEnabled) return view;
+
+        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+            if (jedis.set(viewKey(house.getId()), view, viewPolicy.setParams().nx()) == null)
+                return view; // Another view got in first, it is read from Redis from now on
+        } catch (Exception ignored) {
+            // Redis unavailable, the near cache alone keeps the view, unless the house was deleted meanwhile
+            if (viewCache.get(house.getId()).orElse(null) == NearCache.MISSING)
+                return view;
+        }
+
+        viewCache.put(house.getId(), view);
+
+        return view;
+    }
+
+    /**
+     * Replaces the view of a deleted house with a short lived "does not exist", as for the items.
+     * A reader which loaded the house before the delete then finds its SET NX refused, instead of
+     * caching the deleted house for the whole TTL of the views.
+     */
+    private void writeMissingViewToCache(String id) {
+        if (!Constants.cachingEnabled) return;
+
+        viewCache.putMissing(id, Constants.missingEntryTTLSeconds * 1000L);
+
+        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.set(viewKey(id), MISSING_VALUE, new SetParams().ex(Constants.missingEntryTTLSeconds));
+            CacheInvalidation.getInstance().publish(pipeline, VIEW_PREFIX, id);
+            pipeline.sync();
+        } catch (Exception ignored) {
+            // ignore
+        }
+    }
+
+    private static byte[] viewKey(String id) {
+        return (VIEW_PREFIX + id).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Brings the caches up to date with a house written straight to the container, e.g. by a booking
+     * @param availability the index of the house as written, derived from the one of its previous version
+     */
+    void refreshCached(HouseDAO house, AvailabilityIndex availability) {
+        refreshCached(house, availability, tagsOf(house));
+    }
+
+    // As above, dropping the cached searches of the given tags in a single round trip
+    private void refreshCached(HouseDAO house, AvailabilityIndex availability, Collection<String> tags) {
+        writeToCache(house);
+        writeViewToCache(house);
+        if (availability.getVersion() == house.getVersion()) {
+            availabilityCache.put(house.getId(), availability);
+        }
+        invalidateQueries(tags);
+    }
+
+    /////////////////// AVAILABILITY ///////////////////////
+
+    /**
+     * Returns the availability index of the house, built once per version of the house.
+     * A house written on another node comes with a new version, so a stale index is never used.
+     */
+    AvailabilityIndex availabilityOf(HouseDAO house) {
+        Optional<Object> cached = availabilityCache.get(house.getId());
+        if (cached.isPresent() && cached.get() instanceof AvailabilityIndex index && index.getVersion() == house.getVersion())
+            return index;
+
+        AvailabilityIndex index = AvailabilityIndex.of(house);
+        availabilityCache.put(house.getId(), index);
+
+        return index;
+    }
+
+    /**
+     * @return an available period of the house containing the given days, empty if there is none or no such house
+     */
+    public Optional<AvailablePeriod> findAvailablePeriod(String houseID, LocalDate start, LocalDate end) {
+        return getByID(houseID).getItem()
+                .flatMap(house -> availabilityOf(house).find(start.toEpochDay(), end.toEpochDay()));
+    }
+
+    /**
+     * @return the available periods of the house cut to the given days, empty if there is no such house
+     */
+    public Optional<List<AvailablePeriod>> getFreeWindows(String houseID, LocalDate from, LocalDate to) {
+        return getByID(houseID).getItem()
+                .map(house -> availabilityOf(house).freeWindows(from.toEpochDay(), to.toEpochDay()));
     }
 
     public void deleteUserID(String id) {
         container.deleteUserID(id);
+        invalidateQueries(List.of(ownerTag(id)));
     }
 
-    public List<HouseDAO> getDiscountedSoon() {
+    /////////////////// HOUSE SEARCHES ///////////////////////
+
+    public Stream<HouseDAO> streamHousesByUserID(String userID) {
+        return cachedQuery("owner=" + encode(userID), List.of(ownerTag(userID)), () -> container.streamHousesByUserID(userID));
+    }
+
+    public Stream<HouseDAO> streamHousesByCity(String city) {
+        return cachedQuery("city=" + encode(city), List.of(cityTag(city)), () -> container.streamHousesByCity(city));
+    }
+
+    /**
+     * Streams the houses of the city with a single available period containing the given dates.
+     * The database search is exact, and every write of a house of the city drops the cached results.
+     */
+    public Stream<HouseDAO> streamHousesByCityAndPeriod(String city, LocalDate start, LocalDate end) {
+        String startDate = start.format(Constants.dateFormat);
+        String endDate = end.format(Constants.dateFormat);
+        String query = "city=" + encode(city) + "&start=" + encode(startDate) + "&end=" + encode(endDate);
+
+        return cachedQuery(query, List.of(cityTag(city)), () -> container.streamHousesByCityAndPeriod(city, startDate, endDate));
+    }
+
+    public ServiceResponse<Page<HouseDAO>> getHousesByUserID(String userID, String cursor, int limit) {
+        return container.getHousesByUserID(userID, cursor, limit);
+    }
+
+    public ServiceResponse<Page<HouseDAO>> getHousesByCity(String city, String cursor, int limit) {
+        return container.getHousesByCity(city, cursor, limit);
+    }
+
+    public ServiceResponse<Page<HouseDAO>> getHousesByCityAndPeriod(String city, LocalDate start, LocalDate end, String cursor, int limit) {
+        return container.getHousesByCityAndPeriod(city, start.format(Constants.dateFormat), end.format(Constants.dateFormat), cursor, limit);
+    }
+
+    /**
+     * Serves a search from the query cache, which holds the ids of the houses found.
+     * The houses themselves are then fetched like any batch of ids, mostly from the entity cache.
+     * On a miss the search runs against the database, and its result is cached when small enough,
+     * otherwise it is streamed on from the database cursor. A result is only cached if no house of its tags
+     * was written while the search ran, as the search may have missed that write.
+     * @param query the search parameters, always given in the same order and url encoded
+     * @param tags of the search, writing a house of any of these tags drops the cached result
+     */
+    private Stream<HouseDAO> cachedQuery(String query, List<String> tags, Supplier<Stream<HouseDAO>> search) {
+        if (!Constants.cachingEnabled)
+            return search.get();
+
+        Optional<List<String>> cachedIDs = getQueryFromCache(query);
+        if (cachedIDs.isPresent()) {
+            Optional<List<HouseDAO>> houses = getByIDs(cachedIDs.get()).getItem();
+            if (houses.isPresent())
+                return houses.get().stream();
+        }
+
+        // Read before the search, a write of the tags after this point changes them
+        Optional<List<String>> generations = tagGenerations(tags);
+
+        Stream<HouseDAO> results = search.get();
+        Iterator<HouseDAO> iterator = results.iterator();
+        List<HouseDAO> head = new ArrayList<>();
+        while (iterator.hasNext() && head.size() < Constants.maxCachedQueryResults) {
+            head.add(iterator.next());
+        }
+
+        if (iterator.hasNext()) { // Too large to be cached
+            Stream<HouseDAO> rest = StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+            return Stream.concat(head.stream(), rest).onClose(results::close);
+        }
+
+        results.close();
+        fillCache(head, List.of());
+        generations.ifPresent(before -> writeQueryToCache(query, tags, head.stream().map(HouseDAO::getId).toList(), before));
+
+        return head.stream();
+    }
+
+    private Optional<List<String>> getQueryFromCache(String query) {
+        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+            byte[] cacheValue = jedis.get(queryKey(query));
+            if (cacheValue == null)
+                return Optional.empty();
+
+            return Optional.of(codec.decode(cacheValue, new TypeReference<List<String>>() {}));
+        } catch (Exception ignored) {
+            return Optional.empty();
+        }
+    }
+
+    // The write counts of the tags, empty if they cannot be read
+    private Optional<List<String>> tagGenerations(List<String> tags) {
+        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+            return Optional.of(jedis.mget(tags.stream().map(HouseService::generationKey).toArray(String[]::new)));
+        } catch (Exception ignored) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores the result, and adds it to the set of cached searches of each of its tags.
+     * The generations of the tags are read again after the result is added to their sets: if a write
+     * invalidated them since the search started, the result is dropped. A later invalidation finds it in the sets.
+     * @param generations of the tags, as read before the search
+     */
+    private void writeQueryToCache(String query, List<String> tags, List<String> ids, List<String> generations) {
         try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            String cacheValue = jedis.get("discountedNearFuture");
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.set(queryKey(query), codec.encode(ids), queryPolicy.setParams());
+            for (String tag : tags) {
+                pipeline.sadd(tagKey(tag), queryKey(query));
+                pipeline.expire(tagKey(tag), tagPolicy.nextTtlSeconds());
+            }
+            Response<List<String>> after = pipeline.mget(tags.stream().map(HouseService::generationKey).toArray(String[]::new));
+            pipeline.sync();
 
-            return mapper.readValue(cacheValue, new TypeReference<>() {});
+            if (!generations.equals(after.get())) {
+                jedis.del(queryKey(query));
+            }
         } catch (Exception ignored) {
             // ignore
         }
+    }
+
+    // Drops every cached search of the given tags, the searches of other cities and owners stay cached
+    private void invalidateQueries(Collection<String> tags) {
+        if (!Constants.cachingEnabled || tags.isEmpty()) return;
+
+        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<Set<byte[]>>> queries = new ArrayList<>();
+            for (String tag : tags) {
+                // First, so a search running meanwhile either sees the new generation or is in the set below
+                pipeline.incr(generationKey(tag));
+                pipeline.expire(generationKey(tag), tagPolicy.nextTtlSeconds());
+                queries.add(pipeline.smembers(tagKey(tag)));
+                pipeline.del(tagKey(tag));
+            }
+            pipeline.sync();
+
+            byte[][] queryKeys = queries.stream()
+                    .flatMap(members -> members.get().stream())
+                    .toArray(byte[][]::new);
+            if (queryKeys.length > 0) {
+                jedis.del(queryKeys);
+            }
+        } catch (Exception ignored) {
+            // ignore
+        }
+    }
+
+    // The house as stored before a write, without caching a "does not exist" for houses being created
+    private Optional<HouseDAO> storedVersion(String id) {
+        CacheLookup<HouseDAO> cache = lookupInCache(id);
+        if (cache.isHit() || cache.isMissing())
+            return cache.getItem();
+
+        return container.getByID(id).getItem();
+    }
+
+    private static List<String> tagsOf(HouseDAO house) {
+        List<String> tags = new ArrayList<>();
+        if (house.getOwnerID() != null)
+            tags.add(ownerTag(house.getOwnerID()));
+        if (house.getAddress() != null && house.getAddress().getCity() != null)
+            tags.add(cityTag(house.getAddress().getCity()));
+
+        return tags;
+    }
+
+    private static String ownerTag(String ownerID) {
+        return "owner:" + encode(ownerID);
+    }
+
+    private static String cityTag(String city) {
+        return "city:" + encode(city);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] queryKey(String query) {
+        return (QUERY_PREFIX + query).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] tagKey(String tag) {
+        return (TAG_PREFIX + tag).getBytes(StandardCharsets.UTF_8);
+    }
 
-        ServiceResponse<List<HouseDAO>> houses = container.getDiscountedHousesNearFuture();
+    // Counts the writes of the houses of the tag
+    private static String generationKey(String tag) {
+        return TAG_PREFIX + "generation:" + tag;
+    }
+
+    /**
+     * Streams the houses which have soon a discount. The cached list is stored as a whole,
+     * so only with caching disabled the houses are streamed straight from the database cursor.
+     */
+    public Stream<HouseDAO> streamDiscountedSoon() {
+        if (!Constants.cachingEnabled)
+            return container.streamDiscountedHousesNearFuture();
 
-        if (houses.getItem().isEmpty())
-            return Collections.emptyList();
+        return getDiscountedSoon().stream();
+    }
 
+    /**
+     * Returns the cached list, reloading it in the background once it is stale.
+     * Only the very first reader, or one after the list expired altogether, waits on the database.
+     */
+    public List<HouseDAO> getDiscountedSoon() {
         try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.set("discountedNearFuture", mapper.writeValueAsString(houses));
+            Pipeline pipeline = jedis.pipelined();
+            Response<byte[]> cacheValue = pipeline.get(DISCOUNTED_SOON_KEY);
+            Response<Long> ttlMillis = pipeline.pttl(DISCOUNTED_SOON_KEY);
+            pipeline.sync();
+
+            if (cacheValue.get() != null) {
+                List<HouseDAO> houses = codec.decode(cacheValue.get(), new TypeReference<>() {});
+                if (discountedSoonPolicy.isStale(ttlMillis.get())) {
+                    revalidateDiscountedSoon();
+                }
+
+                return houses;
+            }
         } catch (Exception ignored) {
             // ignore
         }
 
-        return houses.getItem().get();
+        return loadDiscountedSoon();
+    }
+
+    private void revalidateDiscountedSoon() {
+        if (!revalidatingDiscountedSoon.compareAndSet(false, true)) return;
+
+        try {
+            loaders.execute(() -> {
+                try {
+                    loadDiscountedSoon();
+                } finally {
+                    revalidatingDiscountedSoon.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            revalidatingDiscountedSoon.set(false);
+        }
+    }
+
+    private List<HouseDAO> loadDiscountedSoon() {
+        return SingleFlight.execute("discountedNearFuture", () -> {
+            ServiceResponse<List<HouseDAO>> houses = container.getDiscountedHousesNearFuture();
+
+            if (houses.getItem().isEmpty())
+                return Collections.<HouseDAO>emptyList();
+
+            try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+                jedis.set(DISCOUNTED_SOON_KEY, codec.encode(houses.getItem().get()), discountedSoonPolicy.setParams());
+            } catch (Exception ignored) {
+                // ignore
+            }
+
+            return houses.getItem().get();
+        });
     }
 }
@@ -0,0 +1,38 @@
+package scc.cache;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Stores values as plain json text, the format used before versioned cache entries were introduced
+ */
+public class JsonCacheCodec implements CacheCodec {
+    static final JsonCacheCodec INSTANCE = new JsonCacheCodec();
+
+    private final ObjectMapper mapper = CacheMappers.json();
+
+    private JsonCacheCodec() {}
+
+    @Override
+    public byte[] encode(Object value) throws IOException {
+        return mapper.writeValueAsBytes(value);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) throws IOException {
+        if (SmileCacheCodec.isVersioned(bytes))
+            return SmileCacheCodec.INSTANCE.decode(bytes, type);
+
+        return mapper.readValue(bytes, type);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, TypeReference<T> type) throws IOException {
+        if (SmileCacheCodec.isVersioned(bytes))
+            return SmileCacheCodec.INSTANCE.decode(bytes, type);
+
+        return mapper.readValue(bytes, type);
+    }
+}
@@ -0,0 +1,195 @@
+package scc.cache;
+
+import scc.utils.Constants;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process, size bounded LRU cache sitting in front of Redis (L1).
+ * There is one instance per caching prefix, shared by all services of that prefix.
+ * Entries are the deserialized objects themselves and shared by all readers, so callers
+ * must copy an entity before changing it.
+ * Every entry expires after a bounded time, so an entry whose invalidation this node missed,
+ * e.g. while reconnecting to Redis, is not served for longer than that.
+ * Ids known not to exist are kept as short lived tombstones, reported as MISSING.
+ * An entry may carry the expiry of the Redis entry it mirrors, so hits report the remaining TTL of the item.
+ */
+public class NearCache {
+    public static final Object MISSING = new Object();
+    private static final Map<String, NearCache> caches = new ConcurrentHashMap<>();
+
+    private final String prefix;
+    private final int capacity;
+    private final LinkedHashMap<String, Entry> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public static NearCache forPrefix(String prefix) {
+        return caches.computeIfAbsent(prefix, p -> new NearCache(p, Constants.nearCacheCapacity));
+    }
+
+    public static Collection<NearCache> all() {
+        return caches.values();
+    }
+
+    private NearCache(String prefix, int capacity) {
+        this.prefix = prefix;
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= NearCache.this.capacity)
+                    return false;
+
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    public Optional<Object> get(String id) {
+        return getEntry(id).map(Entry::getValue);
+    }
+
+    synchronized Optional<Entry> getEntry(String id) {
+        Entry entry = entries.get(id);
+
+        if (entry != null && entry.isExpired()) {
+            entries.remove(id);
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses++;
+            return Optional.empty();
+        }
+
+        hits++;
+        return Optional.of(entry);
+    }
+
+    public void put(String id, Object value) {
+        put(id, value, 0);
+    }
+
+    /**
+     * @param remoteExpiresAt epoch milliseconds at which the Redis entry of the value expires, 0 if not known
+     */
+    public synchronized void put(String id, Object value, long remoteExpiresAt) {
+        entries.put(id, new Entry(value, System.currentTimeMillis() + Constants.nearCacheTTLMillis, remoteExpiresAt));
+    }
+
+    // The value currently held for the id, even if expired, without counting a hit or a miss
+    synchronized Object peek(String id) {
+        Entry entry = entries.get(id);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Puts the value only if the id still holds the expected value, null for no entry
+     * @return whether the value was put
+     */
+    synchronized boolean replace(String id, Object expected, Object value, long remoteExpiresAt) {
+        if (peek(id) != expected)
+            return false;
+
+        put(id, value, remoteExpiresAt);
+        return true;
+    }
+
+    public synchronized void putMissing(String id, long ttlMillis) {
+        entries.put(id, new Entry(MISSING, System.currentTimeMillis() + Math.min(ttlMillis, Constants.nearCacheTTLMillis), 0));
+    }
+
+    public synchronized void invalidate(String id) {
+        entries.remove(id);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(prefix, entries.size(), capacity, hits, misses, evictions);
+    }
+
+    static class Entry {
+        private final Object value;
+        private final long expiresAt;
+        private final long remoteExpiresAt;
+
+        Entry(Object value, long expiresAt, long remoteExpiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.remoteExpiresAt = remoteExpiresAt;
+        }
+
+        Object getValue() {
+            return value;
+        }
+
+        // Remaining time to live of the Redis entry, negative when not known
+        long getRemoteTtlMillis() {
+            return remoteExpiresAt == 0 ? -1 : Math.max(0, remoteExpiresAt - System.currentTimeMillis());
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+
+    /**
+     * Snapshot of the counters of a near cache, as returned to the clients
+     */
+    public static class Stats {
+        private final String prefix;
+        private final int size;
+        private final int capacity;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        Stats(String prefix, int size, int capacity, long hits, long misses, long evictions) {
+            this.prefix = prefix;
+            this.size = size;
+            this.capacity = capacity;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public double getHitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package scc.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scc.data.house.AvailablePeriod;
+import scc.data.house.House;
+import scc.data.house.HouseDAO;
+import scc.persistence.db.HouseContainer;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Background job merging the fragmented available periods of the houses already stored.
+ * New writes are coalesced as they happen, this job catches up with the houses written before.
+ * Each house is written back with a compare-and-set on its version, so a house booked or edited
+ * while the job runs is left as it is, and coalesced on its next write.
+ */
+public class PeriodCompaction {
+    private static final Logger LOG = LoggerFactory.getLogger(PeriodCompaction.class);
+
+    private final HouseService houseService;
+    private final HouseContainer container;
+    private final ObjectMapper jsonMapper;
+
+    private Thread worker;
+    private volatile Report report;
+
+    PeriodCompaction(HouseService houseService, HouseContainer container, ObjectMapper jsonMapper) {
+        this.houseService = houseService;
+        this.container = container;
+        this.jsonMapper = jsonMapper;
+    }
+
+    /**
+     * Starts a run over all houses, unless one is already running
+     * @return true if a new run was started
+     */
+    public synchronized boolean start() {
+        if (worker != null && worker.isAlive())
+            return false;
+
+        Report run = new Report();
+        report = run;
+        worker = new Thread(() -> compact(run), "period-compaction");
+        worker.setDaemon(true);
+        worker.start();
+
+        return true;
+    }
+
+    // The report of the current or last run, null if there was none yet
+    public Report getReport() {
+        return report;
+    }
+
+    private void compact(Report run) {
+        try (Stream<HouseDAO> houses = container.streamHouses()) {
+            Iterator<HouseDAO> iterator = houses.iterator();
+            while (iterator.hasNext()) {
+                HouseDAO house = iterator.next();
+                // A house which can not be compacted is left as it is, the run goes on with the others
+                try {
+                    compact(house, run);
+                } catch (Exception e) {
+                    run.housesFailed++;
+                    LOG.warn("Could not compact the periods of house {}", house.getId(), e);
+                }
+            }
+        } catch (Exception e) {
+            run.error = e.getMessage();
+            LOG.error("Period compaction stopped after {} houses", run.housesScanned, e);
+        } finally {
+            run.finishedAt = System.currentTimeMillis();
+        }
+    }
+
+    private void compact(HouseDAO house, Report run) {
+        run.housesScanned++;
+
+        Set<AvailablePeriod> periods = house.getAvailablePeriods();
+        Set<AvailablePeriod> coalesced = AvailablePeriod.coalesce(periods);
+        if (coalesced == periods)
+            return;
+
+        HouseDAO compacted = new HouseDAO(house);
+        compacted.setAvailablePeriods(coalesced);
+
+        ServiceResponse<HouseDAO> response = container.replaceIfVersion(compacted, house.getVersion());
+        if (response.getStatusCode() != 200) {
+            run.housesSkipped++;
+            return;
+        }
+
+        HouseDAO stored = response.getItem().orElse(compacted);
+        houseService.refreshCached(stored, AvailabilityIndex.of(stored));
+
+        run.housesCompacted++;
+        run.periodsRemoved += periods.size() - coalesced.size();
+        run.bytesSaved += sizeOf(house) - sizeOf(stored);
+    }
+
+    // Size of the json representation of the house, as cached and sent to the clients
+    private long sizeOf(HouseDAO house) {
+        try {
+            return jsonMapper.writeValueAsBytes(new House(house)).length;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Progress of a run, updated by the job while it runs
+     */
+    public static class Report {
+        private final long startedAt = System.currentTimeMillis();
+        private volatile long finishedAt;
+        private volatile long housesScanned;
+        private volatile long housesCompacted;
+        private volatile long housesSkipped;
+        private volatile long housesFailed;
+        private volatile long periodsRemoved;
+        private volatile long bytesSaved;
+        private volatile String error;
+
+        public long getStartedAt() {
+            return startedAt;
+        }
+
+        public boolean isRunning() {
+            return finishedAt == 0;
+        }
+
+        public long getFinishedAt() {
+            return finishedAt;
+        }
+
+        public long getHousesScanned() {
+            return housesScanned;
+        }
+
+        public long getHousesCompacted() {
+            return housesCompacted;
+        }
+
+        // Houses changed by another write while being compacted
+        public long getHousesSkipped() {
+            return housesSkipped;
+        }
+
+        // Houses left as they were after an error, e.g. a document which could not be written back
+        public long getHousesFailed() {
+            return housesFailed;
+        }
+
+        public long getPeriodsRemoved() {
+            return periodsRemoved;
+        }
+
+        public long getBytesSaved() {
+            return bytesSaved;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
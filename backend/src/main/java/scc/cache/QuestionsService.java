@@ -2,18 +2,22 @@ package scc.cache;
 
 
 import scc.data.QuestionsDAO;
+import scc.persistence.db.Page;
 import scc.persistence.db.QuestionsContainer;
-import scc.persistence.db.mongo.MongoDBLayer;
 
 import java.util.List;
 
 public class QuestionsService extends AbstractService<QuestionsDAO, QuestionsContainer> {
-    public QuestionsService() {
-        super(QuestionsDAO.class, "question:", MongoDBLayer.getInstance().getQuestionsContainer());
+    QuestionsService(QuestionsContainer container) {
+        super(QuestionsDAO.class, "question:", container);
     }
 
     // Get all questions from a house
     public ServiceResponse<List<QuestionsDAO>> getQuestions(String houseId) {
         return container.getQuestions(houseId);
     }
+
+    public ServiceResponse<Page<QuestionsDAO>> getQuestions(String houseId, String cursor, int limit) {
+        return container.getQuestions(houseId, cursor, limit);
+    }
 }
@@ -1,9 +1,13 @@
 package scc.cache;
 
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisConnectionException;
 import scc.utils.Constants;
 
+import java.time.Duration;
+
 public class RedisCache {
 	private static JedisPool instance;
 	
@@ -14,12 +18,57 @@ public class RedisCache {
 		poolConfig.setMaxTotal(128);
 		poolConfig.setMaxIdle(128);
 		poolConfig.setMinIdle(16);
-		poolConfig.setTestOnBorrow(true);
-		poolConfig.setTestOnReturn(true);
+		// Idle connections are validated in the background, not on every borrow and return
+		poolConfig.setTestOnBorrow(false);
+		poolConfig.setTestOnReturn(false);
 		poolConfig.setTestWhileIdle(true);
+		poolConfig.setTimeBetweenEvictionRuns(Duration.ofSeconds(30));
 		poolConfig.setNumTestsPerEvictionRun(3);
+		// An exhausted pool is waited on briefly only, the caller then falls back to the database
 		poolConfig.setBlockWhenExhausted(true);
-		instance = new JedisPool(poolConfig, Constants.getRedisHostname(), 6379, 1000, false);
+		poolConfig.setMaxWait(Duration.ofMillis(Constants.redisMaxWaitMillis));
+		instance = new GuardedJedisPool(poolConfig, Constants.getRedisHostname(), 6379, Constants.redisTimeoutMillis, CacheCircuitBreaker.getInstance());
 		return instance;
 	}
+
+	/**
+	 * Pool reporting the outcome of every borrowed connection to the circuit breaker,
+	 * and refusing connections at once while the circuit is open
+	 */
+	static class GuardedJedisPool extends JedisPool {
+		private final CacheCircuitBreaker circuitBreaker;
+
+		GuardedJedisPool(JedisPoolConfig poolConfig, String host, int port, int timeout, CacheCircuitBreaker circuitBreaker) {
+			super(poolConfig, host, port, timeout, false);
+			this.circuitBreaker = circuitBreaker;
+		}
+
+		@Override
+		public Jedis getResource() {
+			if (circuitBreaker.isOpen())
+				throw new JedisConnectionException("Redis circuit is open");
+
+			// Only failing to connect counts against Redis. Finding no free connection within the max wait
+			// only fails this call: the pool is exhausted because the system is busy, not because Redis is down
+			try {
+				return super.getResource();
+			} catch (JedisConnectionException e) {
+				circuitBreaker.recordFailure();
+				throw e;
+			}
+		}
+
+		@Override
+		public void returnResource(Jedis resource) {
+			circuitBreaker.recordSuccess();
+			super.returnResource(resource);
+		}
+
+		// Connections are returned broken after a failed command, e.g. a timeout
+		@Override
+		public void returnBrokenResource(Jedis resource) {
+			circuitBreaker.recordFailure();
+			super.returnBrokenResource(resource);
+		}
+	}
 }
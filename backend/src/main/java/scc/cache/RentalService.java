@@ -1,14 +1,15 @@
 package scc.cache;
 
 import scc.data.RentalDAO;
+import scc.persistence.db.Page;
 import scc.persistence.db.RentalContainer;
-import scc.persistence.db.mongo.MongoDBLayer;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 public class RentalService extends AbstractService<RentalDAO, RentalContainer> {
-    public RentalService() {
-        super(RentalDAO.class, "rental:", MongoDBLayer.getInstance().getRentalContainer());
+    RentalService(RentalContainer container) {
+        super(RentalDAO.class, "rental:", container);
     }
 
     public void deleteUserID(String id) {
@@ -18,4 +19,12 @@ public class RentalService extends AbstractService<RentalDAO, RentalContainer> {
     public ServiceResponse<List<RentalDAO>> getRentalsForHouse(String houseID) {
         return container.getRentalsByHouseID(houseID);
     }
+
+    public Stream<RentalDAO> streamRentalsForHouse(String houseID) {
+        return container.streamRentalsByHouseID(houseID);
+    }
+
+    public ServiceResponse<Page<RentalDAO>> getRentalsForHouse(String houseID, String cursor, int limit) {
+        return container.getRentalsByHouseID(houseID, cursor, limit);
+    }
 }
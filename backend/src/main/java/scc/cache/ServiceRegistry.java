@@ -0,0 +1,88 @@
+package scc.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import scc.persistence.db.mongo.MongoDBLayer;
+
+/**
+ * Holds the single instance of every service for the lifetime of the application.
+ * Resources are created per request, so they take their services from here instead of building them.
+ * The services keep no per-request state and are safe to share between threads.
+ */
+public class ServiceRegistry {
+    private static ServiceRegistry instance;
+
+    // Shared by everything writing the json sent to the clients, ObjectMapper is thread safe once configured
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+
+    private final HouseService houseService;
+    private final RentalService rentalService;
+    private final QuestionsService questionsService;
+    private final UserService userService;
+    private final BookingEngine bookingEngine;
+    private final PeriodCompaction periodCompaction;
+
+    public static synchronized ServiceRegistry getInstance() {
+        if (instance != null)
+            return instance;
+
+        instance = new ServiceRegistry();
+
+        return instance;
+    }
+
+    private ServiceRegistry() {
+        MongoDBLayer db = MongoDBLayer.getInstance();
+
+        houseService = new HouseService(db.getHouseContainer(), jsonMapper);
+        rentalService = new RentalService(db.getRentalContainer());
+        questionsService = new QuestionsService(db.getQuestionsContainer());
+        userService = new UserService(db.getUserContainer(), houseService, rentalService);
+        bookingEngine = new BookingEngine(houseService, db.getHouseContainer());
+        periodCompaction = new PeriodCompaction(houseService, db.getHouseContainer(), jsonMapper);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "service-registry-shutdown"));
+    }
+
+    public ObjectMapper getJsonMapper() {
+        return jsonMapper;
+    }
+
+    public HouseService getHouseService() {
+        return houseService;
+    }
+
+    public RentalService getRentalService() {
+        return rentalService;
+    }
+
+    public QuestionsService getQuestionsService() {
+        return questionsService;
+    }
+
+    public UserService getUserService() {
+        return userService;
+    }
+
+    public BookingEngine getBookingEngine() {
+        return bookingEngine;
+    }
+
+    public PeriodCompaction getPeriodCompaction() {
+        return periodCompaction;
+    }
+
+    // Releases the Redis and database connections when the application stops
+    private void shutdown() {
+        try {
+            RedisCache.getCachePool().close();
+        } catch (Exception ignored) {
+            // Already closed
+        }
+
+        try {
+            MongoDBLayer.getInstance().close();
+        } catch (Exception ignored) {
+            // Already closed
+        }
+    }
+}
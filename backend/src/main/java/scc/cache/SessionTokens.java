@@ -0,0 +1,277 @@
+package scc.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import scc.utils.Constants;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stateless session tokens: the user id and the validity of the session, signed with HMAC-SHA256.
+ * A token is verified on the CPU alone, without asking Redis who owns the session.
+ * <p>
+ * Tokens cannot be taken back once issued, so logouts and deleted users are kept on a revocation list.
+ * The list lives in a Redis hash, every node holds a copy in memory which it keeps up to date through
+ * the near cache invalidation channel. The copy is reloaded whenever the node (re)subscribes to the
+ * channel, as revocations may have been sent meanwhile, and every revocationsReloadSeconds.
+ */
+public class SessionTokens {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String REVOCATIONS_KEY = "session-revocations";
+    private static final String REVOCATION_PREFIX = "session-revocation:";
+    private static final String USER_FIELD = "user:";
+    private static final String TOKEN_FIELD = "token:";
+    private static final String SEPARATOR = "|";
+    private static final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder decoder = Base64.getUrlDecoder();
+    private static final int POOLED_MACS = 16;
+    private static final Logger LOG = LoggerFactory.getLogger(SessionTokens.class);
+
+    private static SessionTokens instance;
+
+    private final SecretKeySpec key;
+    // A Mac is not thread safe and costly to set up, so a few are reused rather than one kept per thread,
+    // as requests may each run on a new virtual thread
+    private final BlockingQueue<Mac> macs = new ArrayBlockingQueue<>(POOLED_MACS);
+    // Field of the revocation hash -> epoch second, until when a token is revoked or before when a user's tokens are
+    private final Map<String, Long> revocations = new ConcurrentHashMap<>();
+    // Revocations made while Redis was unreachable, written to the hash on the next reload
+    private final Map<String, Long> unwritten = new ConcurrentHashMap<>();
+    private volatile boolean revocationsLoaded = false;
+    private volatile long revocationsLoadedAt;
+    private final AtomicBoolean reloading = new AtomicBoolean();
+    private final AtomicBoolean notEnforcedLogged = new AtomicBoolean();
+
+    /**
+     * @return the token signer, empty when no session secret is configured
+     */
+    public static synchronized Optional<SessionTokens> getInstance() {
+        if (instance != null)
+            return Optional.of(instance);
+
+        String secret = Constants.getSessionSecret();
+        if (secret == null || secret.isEmpty())
+            return Optional.empty();
+
+        instance = new SessionTokens(secret);
+
+        return Optional.of(instance);
+    }
+
+    SessionTokens(String secret) {
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+
+        // Subscribe before loading, so no revocation published meanwhile is lost
+        CacheInvalidation.getInstance().subscribe(REVOCATION_PREFIX, this::applyRevocation);
+        CacheInvalidation.getInstance().onSubscribe(this::loadRevocations);
+        loadRevocations();
+    }
+
+    public String issue(String userID) {
+        long now = now();
+        String payload = userID + SEPARATOR + now + SEPARATOR + (now + Constants.sessionTTLSeconds);
+        byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+
+        return encoder.encodeToString(payloadBytes) + "." + encoder.encodeToString(sign(payloadBytes));
+    }
+
+    /**
+     * @return the id of the user the token was issued to, empty if the token is forged, expired or revoked
+     */
+    public Optional<String> verify(String token) {
+        Optional<String[]> payload = parse(token);
+        if (payload.isEmpty())
+            return Optional.empty();
+
+        String[] parts = payload.get();
+        if (isRevoked(parts[0], Long.parseLong(parts[1]), token.substring(token.indexOf('.') + 1)))
+            return Optional.empty();
+
+        return Optional.of(parts[0]);
+    }
+
+    // Revokes a single token, e.g. on logout
+    public void revoke(String token) {
+        // A token revoked already is revoked again, it expires at the same time
+        Optional<String[]> payload = parse(token);
+        if (payload.isEmpty())
+            return;
+
+        writeRevocation(TOKEN_FIELD + token.substring(token.indexOf('.') + 1), Long.parseLong(payload.get()[2]));
+    }
+
+    // Revokes every token issued to the user up to now, e.g. when the user is deleted
+    public void revokeUser(String userID) {
+        writeRevocation(USER_FIELD + userID, now());
+    }
+
+    /**
+     * Checks the signature and the expiry of the token, not whether it was revoked
+     * @return the user id, issue time and expiry time of the token, empty if it is forged or expired
+     */
+    private Optional<String[]> parse(String token) {
+        int dot = token.indexOf('.');
+        if (dot < 0)
+            return Optional.empty();
+
+        byte[] payloadBytes;
+        byte[] signature;
+        try {
+            payloadBytes = decoder.decode(token.substring(0, dot));
+            signature = decoder.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+
+        if (!MessageDigest.isEqual(signature, sign(payloadBytes)))
+            return Optional.empty();
+
+        String[] parts = new String(payloadBytes, StandardCharsets.UTF_8).split("\\" + SEPARATOR);
+        if (parts.length != 3)
+            return Optional.empty();
+
+        if (Long.parseLong(parts[2]) <= now())
+            return Optional.empty();
+
+        return Optional.of(parts);
+    }
+
+    /**
+     * Until the list was loaded once, e.g. while Redis is down at boot, only the revocations made on this node
+     * are known. Tokens are accepted within their expiry meanwhile, rather than logging every user out.
+     */
+    private boolean isRevoked(String userID, long issuedAt, String signature) {
+        if (!revocationsLoaded) {
+            reloadInBackground();
+            if (notEnforcedLogged.compareAndSet(false, true))
+                LOG.warn("Session revocation list not loaded yet, revocations of other nodes are not enforced");
+        } else if (now() - revocationsLoadedAt >= Constants.revocationsReloadSeconds) {
+            reloadInBackground();
+        }
+
+        Long userRevokedAt = revocations.get(USER_FIELD + userID);
+        return (userRevokedAt != null && issuedAt <= userRevokedAt) || revocations.containsKey(TOKEN_FIELD + signature);
+    }
+
+    /**
+     * Revokes on this node at once, and on the others through Redis. Never throws: with Redis unreachable
+     * the revocation is kept and written on the next reload of the list, the other nodes learn of it then.
+     */
+    private void writeRevocation(String field, long value) {
+        revocations.merge(field, value, Math::max);
+
+        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.hset(REVOCATIONS_KEY, field, Long.toString(value));
+            CacheInvalidation.getInstance().publish(pipeline, REVOCATION_PREFIX, field + SEPARATOR + value);
+            pipeline.sync();
+        } catch (Exception e) {
+            unwritten.merge(field, value, Math::max);
+        }
+    }
+
+    private void applyRevocation(String message) {
+        int separator = message.lastIndexOf(SEPARATOR);
+        if (separator < 0)
+            return;
+
+        revocations.put(message.substring(0, separator), Long.parseLong(message.substring(separator + 1)));
+    }
+
+    private void reloadInBackground() {
+        if (!reloading.compareAndSet(false, true))
+            return;
+
+        try {
+            AbstractService.loaders.execute(() -> {
+                try {
+                    loadRevocations();
+                } finally {
+                    reloading.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            reloading.set(false);
+        }
+    }
+
+    /**
+     * Loads the revocation list, first writing the revocations made while Redis was unreachable.
+     * Entries which no longer match any unexpired token are dropped, from Redis and from this node.
+     */
+    private synchronized void loadRevocations() {
+        try (Jedis jedis = RedisCache.getCachePool().getResource()) {
+            for (Map.Entry<String, Long> entry : unwritten.entrySet()) {
+                Pipeline pipeline = jedis.pipelined();
+                pipeline.hset(REVOCATIONS_KEY, entry.getKey(), Long.toString(entry.getValue()));
+                CacheInvalidation.getInstance().publish(pipeline, REVOCATION_PREFIX, entry.getKey() + SEPARATOR + entry.getValue());
+                pipeline.sync();
+                unwritten.remove(entry.getKey(), entry.getValue());
+            }
+
+            long now = now();
+            for (Map.Entry<String, String> entry : jedis.hgetAll(REVOCATIONS_KEY).entrySet()) {
+                long value = Long.parseLong(entry.getValue());
+                if (isExpired(entry.getKey(), value, now)) {
+                    jedis.hdel(REVOCATIONS_KEY, entry.getKey());
+                } else {
+                    revocations.merge(entry.getKey(), value, Math::max);
+                }
+            }
+            revocations.entrySet().removeIf(entry -> isExpired(entry.getKey(), entry.getValue(), now));
+
+            if (!revocationsLoaded && notEnforcedLogged.get())
+                LOG.info("Session revocation list loaded, revocations are enforced");
+            revocationsLoaded = true;
+            revocationsLoadedAt = now;
+        } catch (Exception ignored) {
+            // Retried on the next verification
+        }
+    }
+
+    // A token revocation lasts until the token expires, a user revocation until the tokens issued before it expire
+    private static boolean isExpired(String field, long value, long now) {
+        return field.startsWith(TOKEN_FIELD)
+                ? value <= now
+                : value + Constants.sessionTTLSeconds <= now;
+    }
+
+    private byte[] sign(byte[] payload) {
+        Mac mac = macs.poll();
+        if (mac == null)
+            mac = newMac();
+
+        try {
+            return mac.doFinal(payload);
+        } finally {
+            macs.offer(mac); // Dropped when the pool is full
+        }
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+}
@@ -0,0 +1,44 @@
+package scc.cache;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key: the first caller runs the loader,
+ * every caller arriving while it is in flight waits for and shares its result.
+ */
+public class SingleFlight {
+    private static final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public static <R> R execute(String key, Supplier<R> loader) {
+        CompletableFuture<Object> own = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, own);
+
+        if (existing != null) { // Someone else is already loading this key
+            try {
+                return (R) existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause)
+                    throw cause;
+                if (e.getCause() instanceof Error cause)
+                    throw cause;
+                throw e;
+            }
+        }
+
+        try {
+            R result = loader.get();
+            own.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package scc.cache;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import scc.utils.Constants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stores values in the binary Smile encoding of json, deflated when they are large.
+ * Entries start with a small header so the format can evolve without breaking running nodes:
+ * [MARKER][VERSION][FLAGS] payload
+ * Entries without the header are legacy json text and are still readable.
+ */
+public class SmileCacheCodec implements CacheCodec {
+    static final SmileCacheCodec INSTANCE = new SmileCacheCodec();
+
+    // Never the first byte of json text, which starts with '{', '[', '"', a digit or a literal
+    private static final byte MARKER = (byte) 0xFE;
+    private static final byte VERSION = 1;
+    private static final byte FLAG_DEFLATED = 1;
+    private static final int HEADER_LENGTH = 3;
+
+    private final ObjectMapper smile = CacheMappers.smile();
+    private final ObjectMapper json = CacheMappers.json();
+
+    private SmileCacheCodec() {}
+
+    static boolean isVersioned(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MARKER;
+    }
+
+    @Override
+    public byte[] encode(Object value) throws IOException {
+        byte[] payload = smile.writeValueAsBytes(value);
+        byte flags = 0;
+
+        if (payload.length >= Constants.cacheCompressionThreshold) {
+            payload = deflate(payload);
+            flags |= FLAG_DEFLATED;
+        }
+
+        byte[] bytes = new byte[HEADER_LENGTH + payload.length];
+        bytes[0] = MARKER;
+        bytes[1] = VERSION;
+        bytes[2] = flags;
+        System.arraycopy(payload, 0, bytes, HEADER_LENGTH, payload.length);
+
+        return bytes;
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) throws IOException {
+        if (!isVersioned(bytes))
+            return json.readValue(bytes, type);
+
+        return smile.readValue(payload(bytes), type);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, TypeReference<T> type) throws IOException {
+        if (!isVersioned(bytes))
+            return json.readValue(bytes, type);
+
+        return smile.readValue(payload(bytes), type);
+    }
+
+    private static byte[] payload(byte[] bytes) throws IOException {
+        if (bytes[1] != VERSION)
+            throw new IOException("Unknown cache entry version " + bytes[1]);
+
+        byte[] payload = Arrays.copyOfRange(bytes, HEADER_LENGTH, bytes.length);
+
+        return (bytes[2] & FLAG_DEFLATED) != 0 ? inflate(payload) : payload;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(data);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+        byte[] buffer = new byte[4096];
+        try {
+            while (!inflater.finished()) {
+                int read = inflater.inflate(buffer);
+                if (read == 0 && inflater.needsInput())
+                    throw new IOException("Truncated cache entry");
+                out.write(buffer, 0, read);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -3,72 +3,141 @@ package scc.cache;
 import redis.clients.jedis.Jedis;
 import scc.data.UserDAO;
 import scc.persistence.db.UserContainer;
-import scc.persistence.db.mongo.MongoDBLayer;
-import scc.utils.Constants;
 
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public class UserService extends AbstractService<UserDAO, UserContainer> {
-    private final HouseService houseService = new HouseService();
-    private final RentalService rentalService = new RentalService();
+    private static final String SESSION_PREFIX = "session:";
 
-    public UserService() {
-        super(UserDAO.class, "user:", MongoDBLayer.getInstance().getUserContainer());
+    private final CachePolicy sessionPolicy = CachePolicy.forPrefix(SESSION_PREFIX);
+    private final HouseService houseService;
+    private final RentalService rentalService;
+
+    UserService(UserContainer container, HouseService houseService, RentalService rentalService) {
+        super(UserDAO.class, "user:", container);
+        this.houseService = houseService;
+        this.rentalService = rentalService;
     }
 
     public ServiceResponse<UserDAO> getByUsername(String username) {
-        if (Constants.cachingEnabled) {
-            Optional<UserDAO> cache = getFromCacheByID(username);
-            if (cache.isPresent()) { // Cache hit
-                return new ServiceResponse<>(200, cache.get());
-            }
+        CacheLookup<UserDAO> cache = lookupInCache(username);
+        if (cache.isHit()) { // Cache hit
+            return new ServiceResponse<>(200, cache.getItem().get());
         }
-
-        // Cache miss
-        ServiceResponse<UserDAO> response = container.getByUsername(username);
-        if (response.getItem().isEmpty()) {
+        if (cache.isMissing()) { // Known not to exist
             return new ServiceResponse<>(404);
         }
 
-        UserDAO user = response.getItem().get();
+        // Cache miss, only one concurrent caller per username goes to the database
+        return SingleFlight.execute("username:" + username, () -> {
+            ServiceResponse<UserDAO> response = container.getByUsername(username);
+            if (response.getItem().isEmpty()) {
+                fillMissing(username);
+                return new ServiceResponse<>(404);
+            }
+
+            UserDAO user = response.getItem().get();
+
+            // Cache item
+            fillCache(user, username);
 
-        // Cache item
-        if (Constants.cachingEnabled) {
-            writeToCache(user, username);
+            return new ServiceResponse<>(200, user);
+        });
+    }
+
+    @Override
+    public ServiceResponse<UserDAO> upsert(UserDAO user) {
+        ServiceResponse<UserDAO> response = super.upsert(user);
+
+        // Replaces a cached "does not exist" left by a lookup of this username
+        if (response.getStatusCode() < 300 && response.getItem().isPresent()) {
+            writeToCache(response.getItem().get(), response.getItem().get().getUsername());
         }
 
-        return new ServiceResponse<>(200, user);
+        return response;
     }
 
     @Override
     public ServiceResponse<Object> deleteByID(String id) {
+        Optional<UserDAO> user = container.getByID(id).getItem();
         ServiceResponse<Object> response = super.deleteByID(id);
+        if (response.getStatusCode() >= 300)
+            return response;
+
+        user.ifPresent(u -> writeMissingToCache(u.getUsername()));
 
         // For all houses and rentals associated with user set userId to "DeletedUser"
         houseService.deleteUserID(id);
         rentalService.deleteUserID(id);
 
+        SessionTokens.getInstance().ifPresent(tokens -> tokens.revokeUser(id));
+
         return response;
     }
 
     ////////////////// SESSION HANDLING //////////////////
 
-    public void putSession(String sessionID, String userID) {
+    /**
+     * Starts a session for the user. With a session secret configured the session is a signed token,
+     * otherwise a random id stored in Redis
+     * @return the value of the session cookie
+     */
+    public String createSession(String userID) {
+        Optional<SessionTokens> tokens = SessionTokens.getInstance();
+        if (tokens.isPresent())
+            return tokens.get().issue(userID);
+
+        String sessionID = UUID.randomUUID().toString();
         try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            jedis.set("session:" + sessionID, userID);
+            jedis.set(SESSION_PREFIX + sessionID, userID, sessionPolicy.setParams());
         }
+
+        return sessionID;
     }
 
     public Optional<String> getUserIDBySession(String sessionID) {
+        Optional<SessionTokens> tokens = SessionTokens.getInstance();
+        if (tokens.isPresent() && isToken(sessionID))
+            return tokens.get().verify(sessionID);
+
         try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            return Optional.ofNullable(jedis.get("session:" + sessionID));
+            return Optional.ofNullable(jedis.getEx(SESSION_PREFIX + sessionID, sessionPolicy.renewParams()));
         }
     }
 
+    /**
+     * Non-blocking variant of getUserIDBySession, a Redis session is read through the shared async pipeline
+     */
+    public CompletableFuture<Optional<String>> getUserIDBySessionAsync(String sessionID) {
+        Optional<SessionTokens> tokens = SessionTokens.getInstance();
+        if (tokens.isPresent() && isToken(sessionID))
+            return CompletableFuture.completedFuture(tokens.get().verify(sessionID));
+
+        return AsyncRedisCache.getInstance()
+                .execute(pipeline -> pipeline.getEx(SESSION_PREFIX + sessionID, sessionPolicy.renewParams()))
+                .thenApply(Optional::ofNullable);
+    }
+
     public boolean userSessionInvalid(String sessionID, String userID) {
+        return !getUserIDBySession(sessionID).map(userID::equals).orElse(false);
+    }
+
+    public void deleteSession(String sessionID) {
+        Optional<SessionTokens> tokens = SessionTokens.getInstance();
+        if (tokens.isPresent() && isToken(sessionID)) {
+            tokens.get().revoke(sessionID);
+            return;
+        }
+
         try (Jedis jedis = RedisCache.getCachePool().getResource()) {
-            String sessionUserID = jedis.get("session:" + sessionID);
-            return !userID.equals(sessionUserID);
+            jedis.del(SESSION_PREFIX + sessionID);
         }
     }
+
+    // Redis sessions are UUIDs, signed tokens always contain a dot
+    private static boolean isToken(String sessionID) {
+        return sessionID.indexOf('.') >= 0;
+    }
 }
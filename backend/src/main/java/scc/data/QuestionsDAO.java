@@ -1,13 +1,21 @@
 package scc.data;
 
 import dev.morphia.annotations.Entity;
+import dev.morphia.annotations.Field;
 import dev.morphia.annotations.Id;
+import dev.morphia.annotations.Index;
+import dev.morphia.annotations.IndexOptions;
+import dev.morphia.annotations.Indexes;
 import dev.morphia.annotations.Property;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import scc.cache.Identifiable;
 
 @Entity("questions")
+@Indexes({
+        @Index(fields = @Field("id"), options = @IndexOptions(unique = true)),
+        @Index(fields = {@Field("house_id"), @Field("_id")})
+})
 public class QuestionsDAO implements Identifiable {
     @Id
     private ObjectId mongoID;
@@ -38,6 +46,11 @@ public class QuestionsDAO implements Identifiable {
         this.mongoID = mongoID;
     }
 
+    public QuestionsDAO(QuestionsDAO other) {
+        this(other.id, other.houseId, other.userId, other.text, other.timestamp, other.answerUserId, other.answerText, other.answerTimestamp);
+        this.mongoID = other.mongoID;
+    }
+
     public QuestionsDAO(Questions q) {
         this(q.getId(), q.getHouseId(), q.getUserId(), q.getText(), q.getTimestamp(), q.getAnswerUserId(), q.getAnswerText(), q.getAnswerTimestamp());
     }
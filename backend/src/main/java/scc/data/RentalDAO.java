@@ -1,13 +1,27 @@
 package scc.data;
 
 import dev.morphia.annotations.Entity;
+import dev.morphia.annotations.Field;
 import dev.morphia.annotations.Id;
+import dev.morphia.annotations.Index;
+import dev.morphia.annotations.IndexOptions;
+import dev.morphia.annotations.Indexes;
 import dev.morphia.annotations.Property;
 import org.bson.types.ObjectId;
 import scc.cache.Identifiable;
+import scc.utils.Constants;
+
+import java.time.LocalDate;
 
 @Entity("rentals")
+@Indexes({
+        @Index(fields = @Field("id"), options = @IndexOptions(unique = true)),
+        @Index(fields = {@Field("house_id"), @Field("_id")}),
+        @Index(fields = @Field("tenant_id"))
+})
 public class RentalDAO implements Identifiable {
+    private static final int UNPARSED = Integer.MIN_VALUE;
+
     @Id
     private ObjectId mongoID;
     @Property("id")
@@ -23,6 +37,10 @@ public class RentalDAO implements Identifiable {
     @Property("price")
     private Float price;
 
+    // The dates as days since the epoch, parsed from the strings on first use and never stored
+    private transient int startDay = UNPARSED;
+    private transient int endDay = UNPARSED;
+
     public RentalDAO() {}
 
     public ObjectId getMongoID() {
@@ -63,6 +81,7 @@ public class RentalDAO implements Identifiable {
 
     public void setStartDate(String startDate) {
         this.startDate = startDate;
+        this.startDay = UNPARSED;
     }
 
     public String getEndDate() {
@@ -71,6 +90,7 @@ public class RentalDAO implements Identifiable {
 
     public void setEndDate(String endDate) {
         this.endDate = endDate;
+        this.endDay = UNPARSED;
     }
 
     public Float getPrice() {
@@ -80,4 +100,18 @@ public class RentalDAO implements Identifiable {
     public void setPrice(Float price) {
         this.price = price;
     }
+
+    public int startDay() {
+        if (startDay == UNPARSED)
+            startDay = (int) LocalDate.parse(this.startDate, Constants.dateFormat).toEpochDay();
+
+        return startDay;
+    }
+
+    public int endDay() {
+        if (endDay == UNPARSED)
+            endDay = (int) LocalDate.parse(this.endDate, Constants.dateFormat).toEpochDay();
+
+        return endDay;
+    }
 }
@@ -1,7 +1,11 @@
 package scc.data;
 
 import dev.morphia.annotations.Entity;
+import dev.morphia.annotations.Field;
 import dev.morphia.annotations.Id;
+import dev.morphia.annotations.Index;
+import dev.morphia.annotations.IndexOptions;
+import dev.morphia.annotations.Indexes;
 import dev.morphia.annotations.Property;
 import org.bson.codecs.pojo.annotations.BsonProperty;
 import org.bson.types.ObjectId;
@@ -11,6 +15,10 @@ import scc.cache.Identifiable;
  * Represents a User, as stored in the database
  */
 @Entity("users")
+@Indexes({
+        @Index(fields = @Field("id"), options = @IndexOptions(unique = true)),
+        @Index(fields = @Field("username"), options = @IndexOptions(unique = true))
+})
 public class UserDAO implements Identifiable {
     private String id;
     @Id
@@ -24,6 +32,18 @@ public class UserDAO implements Identifiable {
     @Property("photo_id")
     private String photoID;
 
+    public UserDAO() {
+    }
+
+    public UserDAO(UserDAO other) {
+        this.id = other.id;
+        this.mongoID = other.mongoID;
+        this.username = other.username;
+        this.fullName = other.fullName;
+        this.passwordHash = other.passwordHash;
+        this.photoID = other.photoID;
+    }
+
     public ObjectId getMongoID() {
         return mongoID;
     }
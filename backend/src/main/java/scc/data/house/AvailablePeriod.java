@@ -6,11 +6,19 @@ import dev.morphia.annotations.Property;
 import scc.utils.Constants;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @Entity
 public class AvailablePeriod {
+    private static final int UNPARSED = Integer.MIN_VALUE;
+
     @Property("start_date")
     private String startDate;
     @Property("end_date")
@@ -20,6 +28,10 @@ public class AvailablePeriod {
     @Property("promotion_price_per_day")
     private Float promotionPricePerDay;
 
+    // The dates as days since the epoch, parsed from the strings on first use and never stored
+    private transient int startDay = UNPARSED;
+    private transient int endDay = UNPARSED;
+
     public AvailablePeriod() {
     }
 
@@ -36,6 +48,7 @@ public class AvailablePeriod {
 
     public void setStartDate(String startDate) {
         this.startDate = startDate;
+        this.startDay = UNPARSED;
     }
 
     public String getEndDate() {
@@ -44,6 +57,7 @@ public class AvailablePeriod {
 
     public void setEndDate(String endDate) {
         this.endDate = endDate;
+        this.endDay = UNPARSED;
     }
 
     public Float getNormalPricePerDay() {
@@ -64,35 +78,92 @@ public class AvailablePeriod {
 
     // [Period]
     public boolean containsPeriod(LocalDate start, LocalDate end) {
-        LocalDate periodStart = getPeriodStart();
-        LocalDate periodEnd = getPeriodEnd();
+        return containsPeriod(start.toEpochDay(), end.toEpochDay());
+    }
 
-        return (periodStart.isBefore(start) || periodStart.isEqual(start)) && (periodEnd.isAfter(end) || periodEnd.isEqual(end));
+    public boolean containsPeriod(long startDay, long endDay) {
+        return startDay() <= startDay && endDay() >= endDay;
     }
 
     // the startDate and EndDate are expected to be within the range of the period
     public Set<AvailablePeriod> subtract(LocalDate start, LocalDate end) {
-        LocalDate periodStart = getPeriodStart();
-        LocalDate periodEnd = getPeriodEnd();
+        return subtract(start.toEpochDay(), end.toEpochDay());
+    }
 
+    public Set<AvailablePeriod> subtract(long startDay, long endDay) {
         HashSet<AvailablePeriod> newPeriods = new HashSet<>();
 
-
-        if (!periodStart.isEqual(start)) { // periodStart before start
-            newPeriods.add(new AvailablePeriod(periodStart.toString(), start.toString(), getNormalPricePerDay(), getPromotionPricePerDay()));
+        if (startDay() != startDay) { // periodStart before start
+            newPeriods.add(withDays(startDay(), startDay));
         }
-        if (!periodEnd.isEqual(end)) { // periodEnd after end
-            newPeriods.add(new AvailablePeriod(end.toString(), periodEnd.toString(), getNormalPricePerDay(), getPromotionPricePerDay()));
+        if (endDay() != endDay) { // periodEnd after end
+            newPeriods.add(withDays(endDay, endDay()));
         }
 
         return newPeriods;
     }
 
-    private LocalDate getPeriodStart() {
-        return LocalDate.parse(this.startDate, Constants.dateFormat);
+    // The part of the period between the given days, which are expected to be within the period
+    public AvailablePeriod clip(long startDay, long endDay) {
+        return withDays(startDay, endDay);
+    }
+
+    /**
+     * Merges the periods of the same prices which overlap or touch, a period ending on the day another one starts included.
+     * Periods of different prices are kept apart, even when they overlap.
+     * @return the given periods if there is nothing to merge, otherwise the merged periods
+     */
+    public static Set<AvailablePeriod> coalesce(Set<AvailablePeriod> periods) {
+        if (periods == null || periods.size() < 2)
+            return periods;
+
+        List<AvailablePeriod> sorted = new ArrayList<>(periods);
+        sorted.sort(Comparator.comparingInt(AvailablePeriod::startDay));
+
+        Set<AvailablePeriod> coalesced = new HashSet<>();
+        Map<List<Float>, AvailablePeriod> openByPrices = new HashMap<>();
+        boolean merged = false;
+
+        for (AvailablePeriod period : sorted) {
+            List<Float> prices = Arrays.asList(period.getNormalPricePerDay(), period.getPromotionPricePerDay());
+            AvailablePeriod open = openByPrices.get(prices);
+
+            if (open != null && period.startDay() <= open.endDay()) {
+                coalesced.remove(open);
+                open = open.withDays(open.startDay(), Math.max(open.endDay(), period.endDay()));
+                merged = true;
+            } else {
+                open = period;
+            }
+
+            coalesced.add(open);
+            openByPrices.put(prices, open);
+        }
+
+        return merged ? coalesced : periods;
+    }
+
+    // A period of the same prices, with its days already known
+    private AvailablePeriod withDays(long startDay, long endDay) {
+        AvailablePeriod period = new AvailablePeriod(LocalDate.ofEpochDay(startDay).toString(), LocalDate.ofEpochDay(endDay).toString(),
+                getNormalPricePerDay(), getPromotionPricePerDay());
+        period.startDay = (int) startDay;
+        period.endDay = (int) endDay;
+
+        return period;
+    }
+
+    public int startDay() {
+        if (startDay == UNPARSED)
+            startDay = (int) LocalDate.parse(this.startDate, Constants.dateFormat).toEpochDay();
+
+        return startDay;
     }
 
-    private LocalDate getPeriodEnd() {
-        return LocalDate.parse(this.endDate, Constants.dateFormat);
+    public int endDay() {
+        if (endDay == UNPARSED)
+            endDay = (int) LocalDate.parse(this.endDate, Constants.dateFormat).toEpochDay();
+
+        return endDay;
     }
 }
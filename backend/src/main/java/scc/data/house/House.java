@@ -16,6 +16,8 @@ public class House {
     private String description;
     private List<String> photoIDs = Collections.emptyList();
     private Set<AvailablePeriod> availablePeriods = Collections.emptySet();
+    // Sent back with a PUT of the house, which is refused if the house was written since
+    private long version;
 
     public House(HouseDAO dao) {
         this.id = dao.getId();
@@ -25,6 +27,7 @@ public class House {
         this.description = dao.getDescription();
         this.photoIDs = dao.getPhotoIDs();
         this.availablePeriods = dao.getAvailablePeriods();
+        this.version = dao.getVersion();
     }
 
     public String getId() {
@@ -82,4 +85,12 @@ public class House {
     public void setAvailablePeriods(Set<AvailablePeriod> availablePeriods) {
         this.availablePeriods = availablePeriods;
     }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
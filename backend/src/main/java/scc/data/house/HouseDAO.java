@@ -1,7 +1,11 @@
 package scc.data.house;
 
 import dev.morphia.annotations.Entity;
+import dev.morphia.annotations.Field;
 import dev.morphia.annotations.Id;
+import dev.morphia.annotations.Index;
+import dev.morphia.annotations.IndexOptions;
+import dev.morphia.annotations.Indexes;
 import dev.morphia.annotations.Property;
 import org.bson.Document;
 import org.bson.codecs.pojo.annotations.BsonProperty;
@@ -12,6 +16,14 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 @Entity("houses")
+@Indexes({
+        @Index(fields = @Field("house_id"), options = @IndexOptions(unique = true)),
+        // Pages are sorted by _id, with _id after the filtered field the page is read in index order
+        @Index(fields = {@Field("owner_id"), @Field("_id")}),
+        @Index(fields = {@Field("address.city"), @Field("_id")}),
+        @Index(fields = {@Field("address.city"), @Field("available_periods.start_date"), @Field("available_periods.end_date")}),
+        @Index(fields = @Field("available_periods.start_date"))
+})
 public class HouseDAO implements Identifiable{
     @Id
     private ObjectId mongoID;
@@ -29,6 +41,25 @@ public class HouseDAO implements Identifiable{
     private List<String> photoIDs = Collections.emptyList();
     @Property("available_periods")
     private Set<AvailablePeriod> availablePeriods = Collections.emptySet();
+    // Incremented by every write, bookings only write the house if it is unchanged since they read it
+    @Property("version")
+    private long version;
+
+    public HouseDAO() {
+    }
+
+    // Shallow copy, for changing a house without touching the instance shared by the caches
+    public HouseDAO(HouseDAO other) {
+        this.mongoID = other.mongoID;
+        this.id = other.id;
+        this.ownerID = other.ownerID;
+        this.name = other.name;
+        this.address = other.address;
+        this.description = other.description;
+        this.photoIDs = other.photoIDs;
+        this.availablePeriods = other.availablePeriods;
+        this.version = other.version;
+    }
 
     public ObjectId getMongoID() {
         return mongoID;
@@ -93,4 +124,12 @@ public class HouseDAO implements Identifiable{
     public void setAvailablePeriods(Set<AvailablePeriod> availablePeriods) {
         this.availablePeriods = availablePeriods;
     }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
@@ -2,9 +2,15 @@ package scc.persistence.db;
 
 import scc.cache.ServiceResponse;
 
+import java.util.Collection;
+import java.util.List;
+
 public interface Container<T> {
     ServiceResponse<T> getByID(String id);
 
+    // Unknown ids are left out of the result
+    ServiceResponse<List<T>> getByIDs(Collection<String> ids);
+
     ServiceResponse<T> upsert(T t);
 
     ServiceResponse<Object> deleteByID(String id);
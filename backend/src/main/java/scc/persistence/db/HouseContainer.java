@@ -4,11 +4,29 @@ import scc.cache.ServiceResponse;
 import scc.data.house.HouseDAO;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface HouseContainer extends Container<HouseDAO> {
     void deleteUserID(String id);
+
+    /**
+     * Replaces the house only if its stored version is still the expected one, and stores it with the next version
+     * @return 200 with the house as stored, 409 if the house was changed meanwhile or does not exist
+     */
+    ServiceResponse<HouseDAO> replaceIfVersion(HouseDAO house, long expectedVersion);
+
     ServiceResponse<List<HouseDAO>> getHousesByUserID(String id);
     ServiceResponse<List<HouseDAO>> getHousesByCity(String name);
     ServiceResponse<List<HouseDAO>> getHousesByCityAndPeriod(String name, String startDate, String endDate);
     ServiceResponse<List<HouseDAO>> getDiscountedHousesNearFuture();
+    ServiceResponse<Page<HouseDAO>> getHousesByUserID(String id, String cursor, int limit);
+    ServiceResponse<Page<HouseDAO>> getHousesByCity(String name, String cursor, int limit);
+    ServiceResponse<Page<HouseDAO>> getHousesByCityAndPeriod(String name, String startDate, String endDate, String cursor, int limit);
+
+    // Streams are backed by an open database cursor and must be closed by the caller
+    Stream<HouseDAO> streamHouses();
+    Stream<HouseDAO> streamHousesByUserID(String id);
+    Stream<HouseDAO> streamHousesByCity(String name);
+    Stream<HouseDAO> streamHousesByCityAndPeriod(String name, String startDate, String endDate);
+    Stream<HouseDAO> streamDiscountedHousesNearFuture();
 }
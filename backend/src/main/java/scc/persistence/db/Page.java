@@ -0,0 +1,28 @@
+package scc.persistence.db;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * One page of a list query, together with the cursor of the next page
+ */
+public class Page<T> {
+    private final List<T> items;
+    private final String nextCursor;
+
+    public Page(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the cursor to pass to fetch the next page, empty if this is the last page
+     */
+    public Optional<String> getNextCursor() {
+        return Optional.ofNullable(nextCursor);
+    }
+}
@@ -7,4 +7,5 @@ import java.util.List;
 
 public interface QuestionsContainer extends Container<QuestionsDAO> {
     ServiceResponse<List<QuestionsDAO>> getQuestions(String houseId);
+    ServiceResponse<Page<QuestionsDAO>> getQuestions(String houseId, String cursor, int limit);
 }
@@ -4,9 +4,14 @@ import scc.cache.ServiceResponse;
 import scc.data.RentalDAO;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface RentalContainer extends Container<RentalDAO> {
     void deleteUserID(String id);
     ServiceResponse<List<RentalDAO>> getRentalsByUserID(String userID);
     ServiceResponse<List<RentalDAO>> getRentalsByHouseID(String houseID);
+    ServiceResponse<Page<RentalDAO>> getRentalsByHouseID(String houseID, String cursor, int limit);
+
+    // The stream is backed by an open database cursor and must be closed by the caller
+    Stream<RentalDAO> streamRentalsByHouseID(String houseID);
 }
@@ -1,11 +1,20 @@
 package scc.persistence.db.cosmos;
 
 import com.azure.cosmos.CosmosContainer;
+import com.azure.cosmos.models.CosmosItemIdentity;
 import com.azure.cosmos.models.CosmosItemRequestOptions;
 import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.CosmosQueryRequestOptions;
+import com.azure.cosmos.models.FeedResponse;
 import com.azure.cosmos.models.PartitionKey;
 import scc.cache.ServiceResponse;
 import scc.persistence.db.Container;
+import scc.persistence.db.Page;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 
 public abstract class CosmosAbstractContainer<T> implements Container<T> {
     protected final CosmosContainer container;
@@ -21,6 +30,15 @@ public abstract class CosmosAbstractContainer<T> implements Container<T> {
         return new ServiceResponse<>(response.getStatusCode(), response.getItem());
     }
 
+    public synchronized ServiceResponse<List<T>> getByIDs(Collection<String> ids) {
+        List<CosmosItemIdentity> identities = ids.stream()
+                .map(id -> new CosmosItemIdentity(new PartitionKey(id), id))
+                .toList();
+
+        FeedResponse<T> response = container.readMany(identities, type);
+        return new ServiceResponse<>(200, response.getResults());
+    }
+
     public synchronized ServiceResponse<T> upsert(T t) {
         CosmosItemResponse<T> response = container.upsertItem(t);
         return new ServiceResponse<>(response.getStatusCode(), response.getItem());
@@ -30,4 +48,17 @@ public abstract class CosmosAbstractContainer<T> implements Container<T> {
         CosmosItemResponse<Object> response = container.deleteItem(id, new PartitionKey(id), new CosmosItemRequestOptions());
         return new ServiceResponse<>(response.getStatusCode(), response.getItem());
     }
+
+    // The cursor is the Cosmos continuation token of the previous page
+    protected ServiceResponse<Page<T>> page(String query, String cursor, int limit) {
+        Iterator<FeedResponse<T>> pages = container.queryItems(query, new CosmosQueryRequestOptions(), type)
+                .iterableByPage(cursor, limit)
+                .iterator();
+
+        if (!pages.hasNext())
+            return new ServiceResponse<>(200, new Page<>(Collections.emptyList(), null));
+
+        FeedResponse<T> page = pages.next();
+        return new ServiceResponse<>(200, new Page<>(page.getResults(), page.getContinuationToken()));
+    }
 }
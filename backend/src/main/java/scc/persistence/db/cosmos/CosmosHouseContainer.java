@@ -1,18 +1,24 @@
 package scc.persistence.db.cosmos;
 
 import com.azure.cosmos.CosmosContainer;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosItemRequestOptions;
+import com.azure.cosmos.models.CosmosItemResponse;
 import com.azure.cosmos.models.CosmosQueryRequestOptions;
+import com.azure.cosmos.models.PartitionKey;
 import com.azure.cosmos.util.CosmosPagedIterable;
 import scc.cache.ServiceResponse;
 import java.util.List;
 
 import scc.data.house.HouseDAO;
 import scc.persistence.db.HouseContainer;
+import scc.persistence.db.Page;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class CosmosHouseContainer extends CosmosAbstractContainer<HouseDAO> implements HouseContainer {
 
@@ -20,8 +26,55 @@ public class CosmosHouseContainer extends CosmosAbstractContainer<HouseDAO> impl
         super(container, HouseDAO.class);
     }
 
+    // Stores the house with the version following the stored one
+    @Override
+    public synchronized ServiceResponse<HouseDAO> upsert(HouseDAO house) {
+        long storedVersion;
+        try {
+            storedVersion = container.readItem(house.getId(), new PartitionKey(house.getId()), HouseDAO.class).getItem().getVersion();
+        } catch (CosmosException e) {
+            if (e.getStatusCode() != 404)
+                throw e;
+            storedVersion = 0;
+        }
+
+        // The given house may be shared through the caches, the new version is set on a copy
+        HouseDAO versioned = new HouseDAO(house);
+        versioned.setVersion(storedVersion + 1);
+
+        return super.upsert(versioned);
+    }
+
+    @Override
+    public synchronized ServiceResponse<HouseDAO> replaceIfVersion(HouseDAO house, long expectedVersion) {
+        CosmosItemResponse<HouseDAO> stored;
+        try {
+            stored = container.readItem(house.getId(), new PartitionKey(house.getId()), HouseDAO.class);
+        } catch (CosmosException e) {
+            if (e.getStatusCode() != 404)
+                throw e;
+            return new ServiceResponse<>(409);
+        }
+
+        if (stored.getItem().getVersion() != expectedVersion)
+            return new ServiceResponse<>(409);
+
+        // The etag guards against writes of other nodes between the read and the replace
+        HouseDAO versioned = new HouseDAO(house);
+        versioned.setVersion(expectedVersion + 1);
+        try {
+            CosmosItemResponse<HouseDAO> response = container.replaceItem(versioned, versioned.getId(), new PartitionKey(versioned.getId()),
+                    new CosmosItemRequestOptions().setIfMatchETag(stored.getETag()));
+            return new ServiceResponse<>(200, response.getItem());
+        } catch (CosmosException e) {
+            if (e.getStatusCode() == 412)
+                return new ServiceResponse<>(409);
+            throw e;
+        }
+    }
+
     public synchronized ServiceResponse<List<HouseDAO>> getHousesByUserID(String id) {
-        String query = "SELECT * FROM houses WHERE houses.ownerID=\"" + id + "\"";
+        String query = byUserID(id);
         CosmosPagedIterable<HouseDAO> response = container.queryItems(query, new CosmosQueryRequestOptions(), HouseDAO.class);
 
         return new ServiceResponse<>(200, response.stream().collect(Collectors.toList()));
@@ -38,33 +91,55 @@ public class CosmosHouseContainer extends CosmosAbstractContainer<HouseDAO> impl
     }
     
     public synchronized ServiceResponse<List<HouseDAO>> getHousesByCity(String name) {
-        String query = "SELECT * FROM houses WHERE houses.address.city=\"" + name + "\"";
+        String query = byCity(name);
         CosmosPagedIterable<HouseDAO> response =  container.queryItems(query, new CosmosQueryRequestOptions(), HouseDAO.class);
 
         return new ServiceResponse<>(200, response.stream().collect(Collectors.toList()));
     }
 
     public synchronized ServiceResponse<List<HouseDAO>> getHousesByCityAndPeriod(String name, String startDate, String endDate) {
-        String query = "SELECT * FROM houses WHERE houses.address.city=\"" + name + "\" AND EXISTS (SELECT VALUE p FROM p IN houses.availablePeriods WHERE p.startDate >= \"" + startDate + "\" AND p.start_date <= \"" + endDate + "\")";
+        String query = byCityAndPeriod(name, startDate, endDate);
         CosmosPagedIterable<HouseDAO> response =  container.queryItems(query, new CosmosQueryRequestOptions(), HouseDAO.class);
 
         return new ServiceResponse<>(200, response.stream().collect(Collectors.toList()));
     }
 
     public synchronized ServiceResponse<List<HouseDAO>> getDiscountedHousesNearFuture() {
-        Calendar cal = Calendar.getInstance();
-        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        CosmosPagedIterable<HouseDAO> response =  container.queryItems(discountedNearFuture(), new CosmosQueryRequestOptions(), HouseDAO.class);
 
-        String startDate = dateFormat.format(cal.getTime());
+        return new ServiceResponse<>(200, response.stream().collect(Collectors.toList()));
+    }
 
-        cal.add(Calendar.MONTH, 3);
-        String endDate = dateFormat.format(cal.getTime());
+    public synchronized ServiceResponse<Page<HouseDAO>> getHousesByUserID(String id, String cursor, int limit) {
+        return page(byUserID(id), cursor, limit);
+    }
 
-        String query = "SELECT * FROM houses WHERE EXISTS (SELECT VALUE p FROM p IN houses.availablePeriods WHERE p.startDate >= \"" + startDate + "\" AND p.startDate <= \"" + endDate + "\" AND IS_DEFINED(p.promotionPrice))";
+    public synchronized ServiceResponse<Page<HouseDAO>> getHousesByCity(String name, String cursor, int limit) {
+        return page(byCity(name), cursor, limit);
+    }
 
-        CosmosPagedIterable<HouseDAO> response =  container.queryItems(query, new CosmosQueryRequestOptions(), HouseDAO.class);
+    public synchronized ServiceResponse<Page<HouseDAO>> getHousesByCityAndPeriod(String name, String startDate, String endDate, String cursor, int limit) {
+        return page(byCityAndPeriod(name, startDate, endDate), cursor, limit);
+    }
 
-        return new ServiceResponse<>(200, response.stream().collect(Collectors.toList()));
+    public Stream<HouseDAO> streamHouses() {
+        return container.queryItems("SELECT * FROM houses", new CosmosQueryRequestOptions(), HouseDAO.class).stream();
+    }
+
+    public Stream<HouseDAO> streamHousesByUserID(String id) {
+        return container.queryItems(byUserID(id), new CosmosQueryRequestOptions(), HouseDAO.class).stream();
+    }
+
+    public Stream<HouseDAO> streamHousesByCity(String name) {
+        return container.queryItems(byCity(name), new CosmosQueryRequestOptions(), HouseDAO.class).stream();
+    }
+
+    public Stream<HouseDAO> streamHousesByCityAndPeriod(String name, String startDate, String endDate) {
+        return container.queryItems(byCityAndPeriod(name, startDate, endDate), new CosmosQueryRequestOptions(), HouseDAO.class).stream();
+    }
+
+    public Stream<HouseDAO> streamDiscountedHousesNearFuture() {
+        return container.queryItems(discountedNearFuture(), new CosmosQueryRequestOptions(), HouseDAO.class).stream();
     }
 
     public synchronized boolean hasHouse(String userID) {
@@ -76,4 +151,28 @@ public class CosmosHouseContainer extends CosmosAbstractContainer<HouseDAO> impl
         CosmosPagedIterable<HouseDAO> res = container.queryItems("SELECT * FROM houses WHERE houses.id=\"" + id + "\"", new CosmosQueryRequestOptions(), HouseDAO.class);
         return res.iterator().hasNext();
     }
+
+    private String byUserID(String id) {
+        return "SELECT * FROM houses WHERE houses.ownerID=\"" + id + "\"";
+    }
+
+    private String byCity(String name) {
+        return "SELECT * FROM houses WHERE houses.address.city=\"" + name + "\"";
+    }
+
+    private String byCityAndPeriod(String name, String startDate, String endDate) {
+        return "SELECT * FROM houses WHERE houses.address.city=\"" + name + "\" AND EXISTS (SELECT VALUE p FROM p IN houses.availablePeriods WHERE p.startDate <= \"" + startDate + "\" AND p.endDate >= \"" + endDate + "\")";
+    }
+
+    private String discountedNearFuture() {
+        Calendar cal = Calendar.getInstance();
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+        String startDate = dateFormat.format(cal.getTime());
+
+        cal.add(Calendar.MONTH, 3);
+        String endDate = dateFormat.format(cal.getTime());
+
+        return "SELECT * FROM houses WHERE EXISTS (SELECT VALUE p FROM p IN houses.availablePeriods WHERE p.startDate >= \"" + startDate + "\" AND p.startDate <= \"" + endDate + "\" AND IS_DEFINED(p.promotionPrice))";
+    }
 }
@@ -7,6 +7,7 @@ import java.util.List;
 
 import scc.cache.ServiceResponse;
 import scc.data.QuestionsDAO;
+import scc.persistence.db.Page;
 import scc.persistence.db.QuestionsContainer;
 
 public class CosmosQuestionsContainer extends CosmosAbstractContainer<QuestionsDAO> implements QuestionsContainer {
@@ -16,9 +17,17 @@ public class CosmosQuestionsContainer extends CosmosAbstractContainer<QuestionsD
 
     // Get all questions from a house
     public synchronized ServiceResponse<List<QuestionsDAO>> getQuestions(String houseId) {
-        CosmosPagedIterable<QuestionsDAO> response = container.queryItems("SELECT * FROM questions WHERE questions.houseId=\"" + houseId + "\"", new CosmosQueryRequestOptions(), QuestionsDAO.class);
+        CosmosPagedIterable<QuestionsDAO> response = container.queryItems(byHouseID(houseId), new CosmosQueryRequestOptions(), QuestionsDAO.class);
 
         return new ServiceResponse<>(200, response.stream().toList());
     }
+
+    public synchronized ServiceResponse<Page<QuestionsDAO>> getQuestions(String houseId, String cursor, int limit) {
+        return page(byHouseID(houseId), cursor, limit);
+    }
+
+    private String byHouseID(String houseId) {
+        return "SELECT * FROM questions WHERE questions.houseId=\"" + houseId + "\"";
+    }
 }
 
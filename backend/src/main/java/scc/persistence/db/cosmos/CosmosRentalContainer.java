@@ -5,10 +5,12 @@ import com.azure.cosmos.models.CosmosQueryRequestOptions;
 import com.azure.cosmos.util.CosmosPagedIterable;
 import scc.cache.ServiceResponse;
 import scc.data.RentalDAO;
+import scc.persistence.db.Page;
 import scc.persistence.db.RentalContainer;
 
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class CosmosRentalContainer extends CosmosAbstractContainer<RentalDAO> implements RentalContainer {
     public CosmosRentalContainer(CosmosContainer container) {
@@ -32,8 +34,20 @@ public class CosmosRentalContainer extends CosmosAbstractContainer<RentalDAO> im
     }
 
     public synchronized ServiceResponse<List<RentalDAO>>  getRentalsByHouseID(String houseID) {
-        CosmosPagedIterable<RentalDAO> response = container.queryItems("SELECT * FROM rental WHERE rental.houseID=\"" + houseID + "\"", new CosmosQueryRequestOptions(), RentalDAO.class);
+        CosmosPagedIterable<RentalDAO> response = container.queryItems(byHouseID(houseID), new CosmosQueryRequestOptions(), RentalDAO.class);
 
         return new ServiceResponse<>(200, response.stream().collect(Collectors.toList()));
     }
+
+    public synchronized ServiceResponse<Page<RentalDAO>> getRentalsByHouseID(String houseID, String cursor, int limit) {
+        return page(byHouseID(houseID), cursor, limit);
+    }
+
+    public Stream<RentalDAO> streamRentalsByHouseID(String houseID) {
+        return container.queryItems(byHouseID(houseID), new CosmosQueryRequestOptions(), RentalDAO.class).stream();
+    }
+
+    private String byHouseID(String houseID) {
+        return "SELECT * FROM rental WHERE rental.houseID=\"" + houseID + "\"";
+    }
 }
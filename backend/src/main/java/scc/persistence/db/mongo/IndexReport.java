@@ -0,0 +1,123 @@
+package scc.persistence.db.mongo;
+
+import com.mongodb.ExplainVerbosity;
+import dev.morphia.query.FindOptions;
+import dev.morphia.query.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs explain on every hot query of the Mongo collections and reports whether
+ * the winning plan is served by an index or by a collection scan
+ */
+public class IndexReport {
+    private final List<Entry> entries = new ArrayList<>();
+
+    IndexReport(MongoDBLayer layer) {
+        MongoHouseCollection houses = layer.houseContainer;
+        MongoRentalCollection rentals = layer.rentalContainer;
+        MongoQuestionsCollection questions = layer.questionsContainer;
+        MongoUserCollection users = layer.userContainer;
+
+        // The values do not matter for the chosen plan, only the shape of the query
+        explain("house.getByID", houses.byID(""));
+        explain("house.getHousesByUserID", houses.byUserID(""));
+        explain("house.getHousesByCity", houses.byCity(""));
+        explain("house.getHousesByCityAndPeriod", houses.byCityAndPeriod("", "", ""));
+        explain("house.getDiscountedHousesNearFuture", houses.byPeriodStart("", ""));
+        explain("rental.getByID", rentals.byID(""));
+        explain("rental.getRentalsByUserID", rentals.byUserID(""));
+        explain("rental.getRentalsByHouseID", rentals.byHouseID(""));
+        explain("question.getByID", questions.byID(""));
+        explain("question.getQuestions", questions.byHouseID(""));
+        explain("user.getByID", users.byID(""));
+        explain("user.getByUsername", users.byUsername(""));
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public boolean isFullyIndexed() {
+        return entries.stream().allMatch(Entry::isIndexed);
+    }
+
+    private void explain(String name, Query<?> query) {
+        try {
+            Map<String, Object> explain = query.explain(new FindOptions(), ExplainVerbosity.EXECUTION_STATS);
+            Map<?, ?> plan = (Map<?, ?>) ((Map<?, ?>) explain.get("queryPlanner")).get("winningPlan");
+            Map<?, ?> stats = (Map<?, ?>) explain.get("executionStats");
+
+            entries.add(new Entry(name, findIndexName(plan), number(stats, "totalDocsExamined"), number(stats, "nReturned")));
+        } catch (Exception e) {
+            entries.add(new Entry(name, null, -1, -1));
+        }
+    }
+
+    // Walks the plan tree down to the IXSCAN stage, if there is any
+    private static String findIndexName(Map<?, ?> stage) {
+        if (stage == null)
+            return null;
+
+        if ("IXSCAN".equals(stage.get("stage")))
+            return (String) stage.get("indexName");
+
+        Object inputStage = stage.get("inputStage");
+        if (inputStage instanceof Map<?, ?> input)
+            return findIndexName(input);
+
+        Object inputStages = stage.get("inputStages");
+        if (inputStages instanceof List<?> inputs) {
+            for (Object input : inputs) {
+                String indexName = input instanceof Map<?, ?> map ? findIndexName(map) : null;
+                if (indexName != null)
+                    return indexName;
+            }
+        }
+
+        return null;
+    }
+
+    private static long number(Map<?, ?> map, String key) {
+        return map != null && map.get(key) instanceof Number number ? number.longValue() : -1;
+    }
+
+    /**
+     * Plan summary of a single query
+     */
+    public static class Entry {
+        private final String query;
+        private final String indexName;
+        private final long docsExamined;
+        private final long returned;
+
+        Entry(String query, String indexName, long docsExamined, long returned) {
+            this.query = query;
+            this.indexName = indexName;
+            this.docsExamined = docsExamined;
+            this.returned = returned;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public String getIndexName() {
+            return indexName;
+        }
+
+        public boolean isIndexed() {
+            return indexName != null;
+        }
+
+        public long getDocsExamined() {
+            return docsExamined;
+        }
+
+        public long getReturned() {
+            return returned;
+        }
+    }
+}
@@ -1,27 +1,55 @@
 package scc.persistence.db.mongo;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoServerException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
 import dev.morphia.Datastore;
+import dev.morphia.mapping.codec.pojo.PropertyModel;
+import dev.morphia.query.FindOptions;
 import dev.morphia.query.Query;
+import dev.morphia.query.Sort;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
 import scc.cache.Identifiable;
 import scc.cache.ServiceResponse;
 import scc.persistence.db.Container;
+import scc.persistence.db.Page;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static dev.morphia.query.filters.Filters.eq;
+import static dev.morphia.query.filters.Filters.gt;
+import static dev.morphia.query.filters.Filters.in;
 
 public abstract class MongoAbstractCollection<T extends Identifiable> implements Container<T> {
     private final Class<T> type;
     final Datastore datastore;
+    final MongoCollection<BsonDocument> documents;
+    final String idProperty;
+    private final PropertyModel mongoID;
 
     MongoAbstractCollection(Class<T> type, Datastore datastore) {
         this.type = type;
         this.datastore = datastore;
+        this.documents = datastore.getCollection(type).withDocumentClass(BsonDocument.class);
+        this.idProperty = datastore.getMapper().getEntityModel(type).getProperty("id").getMappedName();
+        this.mongoID = datastore.getMapper().getEntityModel(type).getIdProperty();
     }
 
     @Override
-    public synchronized ServiceResponse<T> getByID(String id) {
-        T item = datastore.find(type)
-                .filter(eq("id", id))
-                .first();
+    public ServiceResponse<T> getByID(String id) {
+        T item = byID(id).first();
 
         if (item == null) {
             return new ServiceResponse<>(404);
@@ -31,19 +59,99 @@ public abstract class MongoAbstractCollection<T extends Identifiable> implements
     }
 
     @Override
-    public synchronized ServiceResponse<T> upsert(T t) {
-        deleteByID(t.getId());
-        datastore.insert(t);
+    public ServiceResponse<List<T>> getByIDs(Collection<String> ids) {
+        List<T> items = datastore.find(type)
+                .filter(in("id", ids))
+                .iterator()
+                .toList();
+
+        return new ServiceResponse<>(200, items);
+    }
+
+    /**
+     * Replaces the document with the same business id, or inserts it if there is none,
+     * in a single atomic round trip
+     */
+    @Override
+    public ServiceResponse<T> upsert(T t) {
+        retryOnDuplicateID(() -> documents.replaceOne(Filters.eq(idProperty, t.getId()), encode(t), new ReplaceOptions().upsert(true)));
 
         return new ServiceResponse<>(201, t);
     }
 
+    /**
+     * Runs an upsert keyed on the business id. Two concurrent upserts of a new id may both try to insert it,
+     * the unique index on the id then rejects one of them. Run again, that one replaces the document just inserted.
+     */
+    <R> R retryOnDuplicateID(Supplier<R> upsert) {
+        try {
+            return upsert.get();
+        } catch (MongoServerException e) {
+            if (ErrorCategory.fromErrorCode(e.getCode()) != ErrorCategory.DUPLICATE_KEY)
+                throw e;
+        }
+
+        return upsert.get();
+    }
+
+    /**
+     * Encodes the entity as stored by Morphia, without its _id: the _id of an existing
+     * document is kept, a new one is assigned by the server on insert
+     */
+    BsonDocument encode(T t) {
+        BsonDocument document = new BsonDocument();
+        datastore.getCodecRegistry()
+                .get(type)
+                .encode(new BsonDocumentWriter(document), t, EncoderContext.builder().build());
+
+        document.remove("_id");
+
+        return document;
+    }
+
     @Override
-    public synchronized ServiceResponse<Object> deleteByID(String id) {
-        datastore.find(type)
-                .filter(eq("id", id))
-                .delete();
+    public ServiceResponse<Object> deleteByID(String id) {
+        byID(id).delete();
 
         return new ServiceResponse<>(200);
     }
-}
\ No newline at end of file
+
+    /**
+     * Fetches the page of the query following the given cursor, ordered by _id.
+     * The cursor is the hex _id of the last item of the previous page.
+     */
+    ServiceResponse<Page<T>> page(Query<T> query, String cursor, int limit) {
+        if (cursor != null) {
+            if (!ObjectId.isValid(cursor))
+                return new ServiceResponse<>(400);
+
+            query.filter(gt("_id", new ObjectId(cursor)));
+        }
+
+        // Fetch one more than asked to know whether there is a next page
+        List<T> items = query.iterator(new FindOptions().sort(Sort.ascending("_id")).limit(limit + 1)).toList();
+
+        String nextCursor = null;
+        if (items.size() > limit) {
+            items = items.subList(0, limit);
+            nextCursor = ((ObjectId) mongoID.getValue(items.get(limit - 1))).toHexString();
+        }
+
+        return new ServiceResponse<>(200, new Page<>(items, nextCursor));
+    }
+
+    /**
+     * Lazily iterates the query results as the cursor yields them, closing the stream closes the cursor
+     */
+    Stream<T> stream(Query<T> query) {
+        MongoCursor<T> cursor = query.iterator();
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED), false)
+                .onClose(cursor::close);
+    }
+
+    Query<T> byID(String id) {
+        return datastore.find(type)
+                .filter(eq("id", id));
+    }
+}
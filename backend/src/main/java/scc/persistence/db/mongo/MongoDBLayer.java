@@ -1,37 +1,134 @@
 package scc.persistence.db.mongo;
 
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
 import dev.morphia.Datastore;
 import dev.morphia.Morphia;
+import dev.morphia.annotations.Index;
+import dev.morphia.annotations.Indexes;
+import dev.morphia.annotations.internal.IndexHelper;
+import dev.morphia.config.MorphiaConfig;
+import dev.morphia.mapping.codec.pojo.EntityModel;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import scc.persistence.db.*;
 import scc.utils.Constants;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 public class MongoDBLayer implements DBLayer {
-    private static MongoDBLayer instance;
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDBLayer.class);
+    private static final String ENTITY_PACKAGE = "scc.data.*";
+    // Business id field of every collection
+    private static final Map<String, String> ID_FIELDS = Map.of("houses", "house_id", "users", "id", "rentals", "id", "questions", "id");
+
+    private static volatile MongoDBLayer instance;
+    private final MongoClient client;
     final Datastore datastore;
 
-    private final MongoUserCollection userContainer;
-    private final MongoHouseCollection houseContainer;
-    private final MongoRentalCollection rentalContainer;
-    private final MongoQuestionsCollection questionsContainer;
+    final MongoUserCollection userContainer;
+    final MongoHouseCollection houseContainer;
+    final MongoRentalCollection rentalContainer;
+    final MongoQuestionsCollection questionsContainer;
 
-    public static synchronized MongoDBLayer getInstance() {
+    public static MongoDBLayer getInstance() {
         if(instance != null)
             return instance;
 
-        instance = new MongoDBLayer();
+        synchronized (MongoDBLayer.class) {
+            if (instance == null)
+                instance = new MongoDBLayer();
+        }
 
         return instance;
     }
 
     private MongoDBLayer() {
-        this.datastore = Morphia.createDatastore(MongoClients.create(Constants.getMongoDBConnectionString()));
+        this.client = MongoClients.create(Constants.getMongoDBConnectionString());
+        this.datastore = createDatastore(client);
         userContainer = new MongoUserCollection(this.datastore);
         houseContainer = new MongoHouseCollection(this.datastore);
         rentalContainer = new MongoRentalCollection(this.datastore);
         questionsContainer = new MongoQuestionsCollection(this.datastore);
     }
 
+    /**
+     * Maps the entities and creates the indexes they declare, creating an index that already exists is a no-op.
+     * Each index is created on its own, so one that can not be created does not leave the others missing.
+     */
+    static Datastore createDatastore(MongoClient client) {
+        MorphiaConfig config = MorphiaConfig.load().packages(List.of(ENTITY_PACKAGE));
+        Datastore datastore = Morphia.createDatastore(client, config.applyIndexes(false));
+
+        try {
+            dropNonUniqueIDIndexes(datastore.getDatabase());
+        } catch (MongoException e) {
+            LOG.warn("Could not drop the non-unique id indexes, the unique ones can not be created", e);
+        }
+
+        IndexHelper indexHelper = new IndexHelper(datastore.getMapper());
+        for (EntityModel model : datastore.getMapper().getMappedEntities()) {
+            Indexes indexes = model.getAnnotation(Indexes.class);
+            if (model.getIdProperty() == null || indexes == null)
+                continue; // Embedded, not stored in a collection of its own
+
+            MongoCollection<?> collection = datastore.getCollection(model.getType());
+            for (Index index : indexes.value()) {
+                createIndex(indexHelper, collection, model, index);
+            }
+        }
+
+        return datastore;
+    }
+
+    // Queries still work without an index, the index report shows what is missing
+    private static void createIndex(IndexHelper indexHelper, MongoCollection<?> collection, EntityModel model, Index index) {
+        try {
+            indexHelper.createIndex(collection, model, index);
+        } catch (MongoException e) {
+            Document keys = indexHelper.calculateKeys(model, index);
+            LOG.error("Could not create the index {} of {}", keys.toJson(), model.getCollectionName(), e);
+
+            // E.g. existing duplicates block a unique index, the fields are still indexed without the constraint
+            if (index.options().unique()) {
+                try {
+                    collection.createIndex(keys);
+                } catch (MongoException plain) {
+                    LOG.error("Could not create the index {} of {} without the unique constraint either", keys.toJson(), model.getCollectionName(), plain);
+                }
+            }
+        }
+    }
+
+    // The ids were indexed without the unique constraint before, such an index blocks creating the unique one
+    private static void dropNonUniqueIDIndexes(MongoDatabase database) {
+        ID_FIELDS.forEach((collection, idField) -> {
+            for (Document index : database.getCollection(collection).listIndexes()) {
+                if (index.get("key", Document.class).keySet().equals(Set.of(idField)) && !index.getBoolean("unique", false))
+                    database.getCollection(collection).dropIndex(index.getString("name"));
+            }
+        });
+    }
+
+    // Closes the connections to the database, the layer can not be used afterwards
+    public void close() {
+        client.close();
+    }
+
+    /**
+     * Explains every hot query against the live database
+     * @return which index, if any, serves each of them
+     */
+    public IndexReport getIndexReport() {
+        return new IndexReport(this);
+    }
+
     @Override
     public UserContainer getUserContainer() {
         return userContainer;
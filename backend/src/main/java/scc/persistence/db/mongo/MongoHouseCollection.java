@@ -1,35 +1,99 @@
 package scc.persistence.db.mongo;
 
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.result.UpdateResult;
 import dev.morphia.Datastore;
 import dev.morphia.DeleteOptions;
+import dev.morphia.query.Query;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.conversions.Bson;
 import scc.cache.ServiceResponse;
 import scc.data.house.HouseDAO;
 import scc.persistence.db.HouseContainer;
+import scc.persistence.db.Page;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static dev.morphia.query.filters.Filters.*;
 
 public class MongoHouseCollection extends MongoAbstractCollection<HouseDAO> implements HouseContainer {
+    private static final String VERSION = "version";
+
     MongoHouseCollection(Datastore datastore) {
         super(HouseDAO.class, datastore);
     }
 
+    /**
+     * Replaces the house and increments its stored version within the same atomic update.
+     * The version of the given house is ignored and set to the new one.
+     * Houses stored before they were versioned count as version 0.
+     */
+    @Override
+    public ServiceResponse<HouseDAO> upsert(HouseDAO house) {
+        BsonDocument document = encode(house);
+        document.remove(VERSION);
+
+        BsonDocument nextVersion = new BsonDocument("$add", new BsonArray(List.of(
+                new BsonDocument("$ifNull", new BsonArray(List.of(new BsonString("$" + VERSION), new BsonInt64(0)))),
+                new BsonInt64(1))));
+        // The house is passed as $literal, so none of its strings starting with $ is read as a field path
+        BsonDocument replacement = new BsonDocument("$mergeObjects", new BsonArray(List.of(
+                new BsonDocument("_id", new BsonString("$_id")),
+                new BsonDocument("$literal", document),
+                new BsonDocument(VERSION, nextVersion))));
+
+        BsonDocument stored = retryOnDuplicateID(() -> documents.findOneAndUpdate(
+                Filters.eq(idProperty, house.getId()),
+                List.of(new BsonDocument("$replaceWith", replacement)),
+                new FindOneAndUpdateOptions()
+                        .upsert(true)
+                        .projection(Projections.include(VERSION))
+                        .returnDocument(ReturnDocument.AFTER)));
+
+        // The given house may be shared through the caches, the stored version is set on a copy
+        HouseDAO versioned = new HouseDAO(house);
+        versioned.setVersion(stored.getNumber(VERSION).longValue());
+
+        return new ServiceResponse<>(201, versioned);
+    }
+
+    @Override
+    public ServiceResponse<HouseDAO> replaceIfVersion(HouseDAO house, long expectedVersion) {
+        HouseDAO versioned = new HouseDAO(house);
+        versioned.setVersion(expectedVersion + 1);
+
+        Bson version = expectedVersion == 0
+                ? Filters.or(Filters.eq(VERSION, 0L), Filters.exists(VERSION, false))
+                : Filters.eq(VERSION, expectedVersion);
+        UpdateResult result = documents.replaceOne(Filters.and(Filters.eq(idProperty, house.getId()), version), encode(versioned));
+
+        if (result.getMatchedCount() == 0)
+            return new ServiceResponse<>(409);
+
+        return new ServiceResponse<>(200, versioned);
+    }
+
     @Override
-    synchronized public void deleteUserID(String id) {
+    public void deleteUserID(String id) {
         datastore.find(HouseDAO.class)
                 .filter(eq("owner_id", id))
                 .delete(new DeleteOptions().multi(true));
     }
 
     @Override
-    synchronized public ServiceResponse<List<HouseDAO>> getHousesByUserID(String id) {
-        List<HouseDAO> houses = datastore.find(HouseDAO.class)
-                .filter(eq("owner_id", id))
+    public ServiceResponse<List<HouseDAO>> getHousesByUserID(String id) {
+        List<HouseDAO> houses = byUserID(id)
                 .stream()
                 .collect(Collectors.toList());
 
@@ -37,9 +101,8 @@ public class MongoHouseCollection extends MongoAbstractCollection<HouseDAO> impl
     }
 
     @Override
-    synchronized public ServiceResponse<List<HouseDAO>> getHousesByCity(String name) {
-        List<HouseDAO> houses = datastore.find(HouseDAO.class)
-                .filter(eq("address.city", name))
+    public ServiceResponse<List<HouseDAO>> getHousesByCity(String name) {
+        List<HouseDAO> houses = byCity(name)
                 .stream()
                 .collect(Collectors.toList());
 
@@ -47,10 +110,8 @@ public class MongoHouseCollection extends MongoAbstractCollection<HouseDAO> impl
     }
 
     @Override
-    synchronized public ServiceResponse<List<HouseDAO>> getHousesByCityAndPeriod(String name, String startDate, String endDate) {
-        List<HouseDAO> houses = datastore.find(HouseDAO.class)
-                .filter(eq("address.city", name),
-                        elemMatch("available_periods", gte("start_date", startDate), lte("start_date", endDate)))
+    public ServiceResponse<List<HouseDAO>> getHousesByCityAndPeriod(String name, String startDate, String endDate) {
+        List<HouseDAO> houses = byCityAndPeriod(name, startDate, endDate)
                 .stream()
                 .collect(Collectors.toList());
 
@@ -58,7 +119,75 @@ public class MongoHouseCollection extends MongoAbstractCollection<HouseDAO> impl
     }
 
     @Override
-    synchronized public ServiceResponse<List<HouseDAO>> getDiscountedHousesNearFuture() {
+    public ServiceResponse<List<HouseDAO>> getDiscountedHousesNearFuture() {
+        List<HouseDAO> houses = discountedNearFuture()
+                .stream()
+                .collect(Collectors.toList());
+
+        return new ServiceResponse<>(200, houses);
+    }
+
+    @Override
+    public ServiceResponse<Page<HouseDAO>> getHousesByUserID(String id, String cursor, int limit) {
+        return page(byUserID(id), cursor, limit);
+    }
+
+    @Override
+    public ServiceResponse<Page<HouseDAO>> getHousesByCity(String name, String cursor, int limit) {
+        return page(byCity(name), cursor, limit);
+    }
+
+    @Override
+    public ServiceResponse<Page<HouseDAO>> getHousesByCityAndPeriod(String name, String startDate, String endDate, String cursor, int limit) {
+        return page(byCityAndPeriod(name, startDate, endDate), cursor, limit);
+    }
+
+    @Override
+    public Stream<HouseDAO> streamHouses() {
+        return stream(datastore.find(HouseDAO.class));
+    }
+
+    @Override
+    public Stream<HouseDAO> streamHousesByUserID(String id) {
+        return stream(byUserID(id));
+    }
+
+    @Override
+    public Stream<HouseDAO> streamHousesByCity(String name) {
+        return stream(byCity(name));
+    }
+
+    @Override
+    public Stream<HouseDAO> streamHousesByCityAndPeriod(String name, String startDate, String endDate) {
+        return stream(byCityAndPeriod(name, startDate, endDate));
+    }
+
+    @Override
+    public Stream<HouseDAO> streamDiscountedHousesNearFuture() {
+        return stream(discountedNearFuture());
+    }
+
+    /////////////////// QUERIES ///////////////////////
+
+    Query<HouseDAO> byUserID(String id) {
+        return datastore.find(HouseDAO.class)
+                .filter(eq("owner_id", id));
+    }
+
+    Query<HouseDAO> byCity(String name) {
+        return datastore.find(HouseDAO.class)
+                .filter(eq("address.city", name));
+    }
+
+    // Houses of the city with a single period containing the whole stay, served by the city and period index
+    Query<HouseDAO> byCityAndPeriod(String name, String startDate, String endDate) {
+        return datastore.find(HouseDAO.class)
+                .filter(eq("address.city", name),
+                        elemMatch("available_periods", lte("start_date", startDate), gte("end_date", endDate)));
+    }
+
+    // Houses with a period starting within the next three months
+    private Query<HouseDAO> discountedNearFuture() {
         Calendar cal = Calendar.getInstance();
         DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
 
@@ -67,11 +196,11 @@ public class MongoHouseCollection extends MongoAbstractCollection<HouseDAO> impl
         cal.add(Calendar.MONTH, 3);
         String endDate = dateFormat.format(cal.getTime());
 
-        List<HouseDAO> houses = datastore.find(HouseDAO.class)
-                .filter(elemMatch("available_periods", gte("start_date", startDate), lte("start_date", endDate)))
-                .stream()
-                .collect(Collectors.toList());
+        return byPeriodStart(startDate, endDate);
+    }
 
-        return new ServiceResponse<>(200, houses);
+    Query<HouseDAO> byPeriodStart(String startDate, String endDate) {
+        return datastore.find(HouseDAO.class)
+                .filter(elemMatch("available_periods", gte("start_date", startDate), lte("start_date", endDate)));
     }
 }
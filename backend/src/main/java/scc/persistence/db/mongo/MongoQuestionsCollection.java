@@ -5,6 +5,7 @@ import dev.morphia.query.Query;
 import scc.cache.ServiceResponse;
 import scc.data.QuestionsDAO;
 import scc.data.house.HouseDAO;
+import scc.persistence.db.Page;
 import scc.persistence.db.QuestionsContainer;
 
 import java.util.List;
@@ -18,12 +19,23 @@ public class MongoQuestionsCollection extends MongoAbstractCollection<QuestionsD
     }
 
     @Override
-    synchronized public ServiceResponse<List<QuestionsDAO>> getQuestions(String houseId) {
-        List<QuestionsDAO> questions = datastore.find(QuestionsDAO.class)
-                .filter(eq("house_id", houseId))
+    public ServiceResponse<List<QuestionsDAO>> getQuestions(String houseId) {
+        List<QuestionsDAO> questions = byHouseID(houseId)
                 .stream()
                 .collect(Collectors.toList());
 
         return new ServiceResponse<>(200, questions);
     }
+
+    @Override
+    public ServiceResponse<Page<QuestionsDAO>> getQuestions(String houseId, String cursor, int limit) {
+        return page(byHouseID(houseId), cursor, limit);
+    }
+
+    /////////////////// QUERIES ///////////////////////
+
+    Query<QuestionsDAO> byHouseID(String houseId) {
+        return datastore.find(QuestionsDAO.class)
+                .filter(eq("house_id", houseId));
+    }
 }
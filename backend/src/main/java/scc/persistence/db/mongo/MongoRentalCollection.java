@@ -6,10 +6,12 @@ import dev.morphia.query.Query;
 import scc.cache.ServiceResponse;
 import scc.data.RentalDAO;
 import scc.data.house.HouseDAO;
+import scc.persistence.db.Page;
 import scc.persistence.db.RentalContainer;
 
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static dev.morphia.query.filters.Filters.eq;
 
@@ -19,16 +21,15 @@ public class MongoRentalCollection extends MongoAbstractCollection<RentalDAO> im
     }
 
     @Override
-    synchronized public void deleteUserID(String id) {
+    public void deleteUserID(String id) {
         datastore.find(RentalDAO.class)
                 .filter(eq("tenant_id", id))
                 .delete(new DeleteOptions().multi(true));
     }
 
     @Override
-    synchronized public ServiceResponse<List<RentalDAO>> getRentalsByUserID(String userID) {
-        List<RentalDAO> rentals = datastore.find(RentalDAO.class)
-                .filter(eq("tenant_id", userID))
+    public ServiceResponse<List<RentalDAO>> getRentalsByUserID(String userID) {
+        List<RentalDAO> rentals = byUserID(userID)
                 .stream()
                 .collect(Collectors.toList());
 
@@ -36,12 +37,33 @@ public class MongoRentalCollection extends MongoAbstractCollection<RentalDAO> im
     }
 
     @Override
-    synchronized public ServiceResponse<List<RentalDAO>> getRentalsByHouseID(String houseID) {
-        List<RentalDAO> rentals = datastore.find(RentalDAO.class)
-                .filter(eq("house_id", houseID))
+    public ServiceResponse<List<RentalDAO>> getRentalsByHouseID(String houseID) {
+        List<RentalDAO> rentals = byHouseID(houseID)
                 .stream()
                 .collect(Collectors.toList());
 
         return new ServiceResponse<>(200, rentals);
     }
+
+    @Override
+    public ServiceResponse<Page<RentalDAO>> getRentalsByHouseID(String houseID, String cursor, int limit) {
+        return page(byHouseID(houseID), cursor, limit);
+    }
+
+    @Override
+    public Stream<RentalDAO> streamRentalsByHouseID(String houseID) {
+        return stream(byHouseID(houseID));
+    }
+
+    /////////////////// QUERIES ///////////////////////
+
+    Query<RentalDAO> byUserID(String userID) {
+        return datastore.find(RentalDAO.class)
+                .filter(eq("tenant_id", userID));
+    }
+
+    Query<RentalDAO> byHouseID(String houseID) {
+        return datastore.find(RentalDAO.class)
+                .filter(eq("house_id", houseID));
+    }
 }
@@ -1,6 +1,7 @@
 package scc.persistence.db.mongo;
 
 import dev.morphia.Datastore;
+import dev.morphia.query.Query;
 import scc.cache.ServiceResponse;
 import scc.data.UserDAO;
 import scc.persistence.db.UserContainer;
@@ -14,10 +15,8 @@ public class MongoUserCollection extends MongoAbstractCollection<UserDAO> implem
     }
 
     @Override
-    public synchronized ServiceResponse<UserDAO> getByUsername(String username) {
-        UserDAO user = datastore.find(UserDAO.class)
-                .filter(eq("username", username))
-                .first();
+    public ServiceResponse<UserDAO> getByUsername(String username) {
+        UserDAO user = byUsername(username).first();
 
         if (user == null) {
             return new ServiceResponse<>(404);
@@ -25,4 +24,11 @@ public class MongoUserCollection extends MongoAbstractCollection<UserDAO> implem
             return new ServiceResponse<>(200, user);
         }
     }
+
+    /////////////////// QUERIES ///////////////////////
+
+    Query<UserDAO> byUsername(String username) {
+        return datastore.find(UserDAO.class)
+                .filter(eq("username", username));
+    }
 }
@@ -0,0 +1,135 @@
+package scc.srv;
+
+import jakarta.ws.rs.CookieParam;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Cookie;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import scc.cache.CacheUsageReport;
+import scc.cache.NearCache;
+import scc.cache.PeriodCompaction;
+import scc.cache.ServiceRegistry;
+import scc.cache.UserService;
+import scc.persistence.db.mongo.MongoDBLayer;
+import scc.utils.Constants;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Resource for operational insight into the backend
+ */
+@Path("/admin")
+public class AdminResource {
+    private final UserService userService = ServiceRegistry.getInstance().getUserService();
+
+    /**
+     * Returns the hit ratio, size and eviction counters of the near cache of every caching prefix
+     * @return Response json array containing the statistics per prefix
+     */
+    @GET
+    @Path("/cache")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getCacheStats() {
+        List<NearCache.Stats> stats = NearCache.all()
+                .stream()
+                .map(NearCache::getStats)
+                .toList();
+
+        return Response.ok(stats).build();
+    }
+
+    /**
+     * Counts the Redis keys of every caching prefix and estimates the memory they use.
+     * Walks the whole keyspace, so it is meant for occasional capacity planning.
+     * @return Response json with the key count, configured TTL and estimated bytes per prefix,
+     * 401 without a valid session, 403 if the user is not an admin
+     */
+    @GET
+    @Path("/cache/usage")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getCacheUsage(@CookieParam("scc:session") Cookie session) {
+        Optional<Response> refused = refuseUnlessAdmin(session);
+        if (refused.isPresent())
+            return refused.get();
+
+        return Response.ok(CacheUsageReport.collect()).build();
+    }
+
+    /**
+     * Explains the hot database queries and reports which index serves each of them
+     * @return Response json with one entry per query, indexName is null for collection scans,
+     * 401 without a valid session, 403 if the user is not an admin
+     */
+    @GET
+    @Path("/indexes")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getIndexReport(@CookieParam("scc:session") Cookie session) {
+        Optional<Response> refused = refuseUnlessAdmin(session);
+        if (refused.isPresent())
+            return refused.get();
+
+        return Response.ok(MongoDBLayer.getInstance().getIndexReport()).build();
+    }
+
+    /**
+     * Starts merging the fragmented available periods of all stored houses in the background.
+     * The run scans and may rewrite every house, so only admins may start it.
+     * @return 202 if the compaction started, 409 if one is already running,
+     * 401 without a valid session, 403 if the user is not an admin
+     */
+    @POST
+    @Path("/houses/compaction")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response startPeriodCompaction(@CookieParam("scc:session") Cookie session) {
+        Optional<Response> refused = refuseUnlessAdmin(session);
+        if (refused.isPresent())
+            return refused.get();
+
+        PeriodCompaction compaction = ServiceRegistry.getInstance().getPeriodCompaction();
+
+        if (!compaction.start())
+            return Response.status(409).entity(compaction.getReport()).build();
+
+        return Response.accepted(compaction.getReport()).build();
+    }
+
+    /**
+     * Returns the progress of the running compaction, or the outcome of the last one
+     * @return Response json with the houses compacted and the bytes saved, 404 if no compaction ran yet,
+     * 401 without a valid session, 403 if the user is not an admin
+     */
+    @GET
+    @Path("/houses/compaction")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getPeriodCompaction(@CookieParam("scc:session") Cookie session) {
+        Optional<Response> refused = refuseUnlessAdmin(session);
+        if (refused.isPresent())
+            return refused.get();
+
+        PeriodCompaction.Report report = ServiceRegistry.getInstance().getPeriodCompaction().getReport();
+
+        if (report == null)
+            return Response.status(404).build();
+
+        return Response.ok(report).build();
+    }
+
+    // Refuses callers without the session of a user listed as admin, every caller when no admin is configured
+    private Optional<Response> refuseUnlessAdmin(Cookie session) {
+        if (session == null || session.getValue() == null)
+            return Optional.of(Response.status(401).build());
+
+        Optional<String> userID = userService.getUserIDBySession(session.getValue());
+        if (userID.isEmpty())
+            return Optional.of(Response.status(401).build());
+
+        if (!Constants.getAdminUserIDs().contains(userID.get()))
+            return Optional.of(Response.status(403).build());
+
+        return Optional.empty();
+    }
+}
\ No newline at end of file
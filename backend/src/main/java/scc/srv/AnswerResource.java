@@ -1,8 +1,11 @@
 package scc.srv;
 
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
 import jakarta.ws.rs.core.Response;
 import scc.cache.HouseService;
 import scc.cache.QuestionsService;
+import scc.cache.ServiceRegistry;
 import scc.cache.ServiceResponse;
 import scc.data.Questions;
 import scc.data.QuestionsDAO;
@@ -23,43 +26,47 @@ import jakarta.ws.rs.core.MediaType;
  */
 @Path("/house/{houseId}/question/{questionId}/answer")
 public class AnswerResource {
-    private final HouseService houseService = new HouseService();
-    private final QuestionsService questionsService = new QuestionsService();
+    private final HouseService houseService = ServiceRegistry.getInstance().getHouseService();
+    private final QuestionsService questionsService = ServiceRegistry.getInstance().getQuestionsService();
     
     @Path("/")
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response addAnswer(@PathParam("houseId") String houseId, @PathParam("questionId") String questionId, Questions ans) {
+    public void addAnswer(@Suspended AsyncResponse asyncResponse, @PathParam("houseId") String houseId, @PathParam("questionId") String questionId, Questions ans) {
+        AsyncExecution.run(asyncResponse, () -> {
 
 
-        Optional<QuestionsDAO> question = questionsService.getByID(questionId).getItem();
+            Optional<QuestionsDAO> question = questionsService.getByID(questionId).getItem();
         
-        if (question.isEmpty()) {
-            return Response.status(404, "Question doesn't exist.").build();
-        }
+            if (question.isEmpty()) {
+                return Response.status(404, "Question doesn't exist.").build();
+            }
 
-        Optional<HouseDAO> house = houseService.getByID(houseId).getItem();
-        if (house.isEmpty()) {
-            return Response.status(404, "House doesn't exist.").build();
-        }
+            Optional<HouseDAO> house = houseService.getByID(houseId).getItem();
+            if (house.isEmpty()) {
+                return Response.status(404, "House doesn't exist.").build();
+            }
 
-        // Check if user is the owner of the house
-        if (!house.get().getOwnerID().equals(ans.getUserId())) {
-            return Response.status(403, "Only the owner of the house can respond to the question.").build();
-        }
+            // Check if user is the owner of the house
+            if (!house.get().getOwnerID().equals(ans.getUserId())) {
+                return Response.status(403, "Only the owner of the house can respond to the question.").build();
+            }
 
-        if (!question.get().getAnswerText().isEmpty()) {
-            return Response.status(409, "Answer already exists.").build();
-        }
+            if (!question.get().getAnswerText().isEmpty()) {
+                return Response.status(409, "Answer already exists.").build();
+            }
 
 
-        question.get().setAnswerTimestamp(new SimpleDateFormat("yyyy-MM-dd.HH-mm-ss").format(new java.util.Date()));
-        question.get().setAnswerText(ans.getText());
-        question.get().setAnswerUserId(ans.getUserId());
+            // The question may be the cached instance, shared with other requests
+            QuestionsDAO answered = new QuestionsDAO(question.get());
+            answered.setAnswerTimestamp(new SimpleDateFormat("yyyy-MM-dd.HH-mm-ss").format(new java.util.Date()));
+            answered.setAnswerText(ans.getText());
+            answered.setAnswerUserId(ans.getUserId());
 
-        ServiceResponse<QuestionsDAO> res = questionsService.upsert(question.get());
+            ServiceResponse<QuestionsDAO> res = questionsService.upsert(answered);
         
-        return Response.status(res.getStatusCode()).build();
+            return Response.status(res.getStatusCode()).build();
+        });
     }
 }
@@ -0,0 +1,65 @@
+package scc.srv;
+
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.core.Response;
+import scc.utils.Constants;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs the endpoints off the servlet container's worker threads, so a request waiting on Redis or
+ * Mongo does not hold one. The request is then only limited by the Redis and Mongo connection pools.
+ * Uses a virtual thread per request when the JVM has them, a bounded pool otherwise.
+ */
+class AsyncExecution {
+    private static final ExecutorService executor = Constants.asyncRequestsEnabled() ? createExecutor() : null;
+
+    /**
+     * Computes the response of the endpoint and resumes the suspended request with it.
+     * With async execution disabled the endpoint runs on the calling thread.
+     */
+    static void run(AsyncResponse asyncResponse, Supplier<Response> endpoint) {
+        if (executor == null) {
+            complete(asyncResponse, endpoint);
+            return;
+        }
+
+        try {
+            executor.execute(() -> complete(asyncResponse, endpoint));
+        } catch (RejectedExecutionException e) {
+            asyncResponse.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+        }
+    }
+
+    // Exceptions are resumed as well, so they reach the exception mappers as if thrown by the endpoint
+    private static void complete(AsyncResponse asyncResponse, Supplier<Response> endpoint) {
+        try {
+            asyncResponse.resume(endpoint.get());
+        } catch (Throwable t) {
+            asyncResponse.resume(t);
+        }
+    }
+
+    private static ExecutorService createExecutor() {
+        try {
+            // Only available from Java 21 on, the application is still built for 17
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return new ThreadPoolExecutor(
+                    Constants.asyncPoolSize, Constants.asyncPoolSize,
+                    60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Constants.asyncQueueSize),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "async-request");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+    }
+}
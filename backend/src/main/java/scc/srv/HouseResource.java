@@ -1,34 +1,50 @@
 package scc.srv;
 
-import java.util.List;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.Cookie;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import org.jboss.resteasy.spi.HttpRequest;
 import scc.cache.HouseService;
+import scc.cache.ServiceRegistry;
 import scc.cache.ServiceResponse;
 import scc.cache.UserService;
+import scc.data.house.AvailablePeriod;
 import scc.data.house.House;
 import scc.data.house.HouseDAO;
-import scc.persistence.db.mongo.MongoDBLayer;
+import scc.persistence.db.Page;
 import scc.persistence.media.FileSystemService;
 import scc.persistence.media.MediaService;
+import scc.utils.Constants;
 
 import java.net.URI;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * Resource for accessing houses
  */ 
 @Path("/house")
 public class HouseResource {
-	private final HouseService houseService = new HouseService();
-	private final UserService userService = new UserService();
+	private final HouseService houseService = ServiceRegistry.getInstance().getHouseService();
+	private final UserService userService = ServiceRegistry.getInstance().getUserService();
 	private final MediaService mediaService = FileSystemService.getInstance();
 
+	@Context
+	private HttpRequest request;
+
 	/**
 	 * Create a single house
 	 * @param houseDAO the house to be created
@@ -37,60 +53,76 @@ public class HouseResource {
 	@POST
 	@Path("/")
 	@Consumes(MediaType.APPLICATION_JSON)
-	public Response postHouse(@CookieParam("scc:session") Cookie session,
+	public void postHouse(@Suspended AsyncResponse asyncResponse, @CookieParam("scc:session") Cookie session,
 							  HouseDAO houseDAO) {
-		if (session == null || session.getValue() == null)
-			return Response.status(401).build();
+		AsyncExecution.run(asyncResponse, () -> {
+			RequestContext context = RequestContext.of(request);
 
-		Optional<String> userID = userService.getUserIDBySession(session.getValue());
+			if (session == null || session.getValue() == null)
+				return Response.status(401).build();
 
-		if (userID.isEmpty())
-			return Response.status(401).build();
+			Optional<String> userID = context.getUserIDBySession(userService, session.getValue());
 
-		houseDAO.setOwnerID(userID.get());
-		houseDAO.setId(UUID.randomUUID().toString());
+			if (userID.isEmpty())
+				return Response.status(401).build();
 
-		ServiceResponse<HouseDAO> response = houseService.upsert(houseDAO);
+			houseDAO.setOwnerID(userID.get());
+			houseDAO.setId(UUID.randomUUID().toString());
 
-		if (response.getStatusCode() != 201 || response.getItem().isEmpty()) {
-			return Response.status(response.getStatusCode()).build();
-		}
+			ServiceResponse<HouseDAO> response = context.upsert(houseService, houseDAO);
+
+			if (response.getStatusCode() != 201 || response.getItem().isEmpty()) {
+				return Response.status(response.getStatusCode()).build();
+			}
 
-		URI housePath = URI.create("/house/" + response.getItem().get().getId());
-		return Response.created(housePath).build();
+			URI housePath = URI.create("/house/" + response.getItem().get().getId());
+			return Response.created(housePath).build();
+		});
 	}
 
 	/**
-	 * Update a house by a given id
+	 * Update a house by a given id. The house is replaced as a whole, its available periods included.
+	 * A client sending the version of the house it read gets 409 if the house was written since, e.g. booked.
+	 * Without a version the update is last-writer-wins, and may make dates booked meanwhile available again.
 	 * @param id the id of the house to be updated
-	 * @param houseDAO the updated content
-	 * @return nothing - 2xx if update was successful
+	 * @param houseDAO the updated content, with the version it was read at
+	 * @return nothing - 201 if update was successful, 409 if the house was written since the given version
 	 */
 	@PUT
 	@Path("/{id}")
 	@Consumes(MediaType.APPLICATION_JSON)
-	public Response putHouse(@CookieParam("scc:session") Cookie session,
+	public void putHouse(@Suspended AsyncResponse asyncResponse, @CookieParam("scc:session") Cookie session,
 							 @PathParam("id") String id,
 							 HouseDAO houseDAO) {
-		ServiceResponse<HouseDAO> houseResponse = houseService.getByID(id);
+		AsyncExecution.run(asyncResponse, () -> {
+			RequestContext context = RequestContext.of(request);
 
-		if (houseResponse.getItem().isEmpty())
-			return Response.status(404).build();
+			// The session and the house are looked up in parallel
+			CompletableFuture<Optional<String>> sessionUser = lookupSession(context, session);
+			ServiceResponse<HouseDAO> houseResponse = RequestContext.await(context.getByIDAsync(houseService, id));
 
-		if (session == null || session.getValue() == null ||
-				userService.userSessionInvalid(session.getValue(), houseResponse.getItem().get().getOwnerID()))
-			return Response.status(401).build();
+			if (houseResponse.getItem().isEmpty())
+				return Response.status(404).build();
 
-		Optional<String> userID = userService.getUserIDBySession(session.getValue());
+			Optional<String> userID = RequestContext.await(sessionUser);
 
-		if (userID.isEmpty())
-			return Response.status(401).build();
+			if (userID.isEmpty() || !userID.get().equals(houseResponse.getItem().get().getOwnerID()))
+				return Response.status(401).build();
 
-		houseDAO.setOwnerID(userID.get());
-		houseDAO.setId(id);
-		ServiceResponse<HouseDAO> response = houseService.upsert(houseDAO);
+			ServiceResponse<HouseDAO> response = houseService.update(id, current -> {
+				if (houseDAO.getVersion() > 0 && current.getVersion() != houseDAO.getVersion())
+					return null;
 
-		return Response.status(response.getStatusCode()).build();
+				HouseDAO replacement = new HouseDAO(houseDAO);
+				replacement.setMongoID(current.getMongoID());
+				replacement.setId(id);
+				replacement.setOwnerID(userID.get());
+				return replacement;
+			});
+
+			// Created, as when the house was upserted
+			return Response.status(response.getStatusCode() == 200 ? 201 : response.getStatusCode()).build();
+		});
 	}
 
 	/**
@@ -101,15 +133,59 @@ public class HouseResource {
 	@GET
 	@Path("/{id}")
 	@Produces(MediaType.APPLICATION_JSON)
-	public Response getHouseByID(@PathParam("id") String id) {
-		ServiceResponse<HouseDAO> response = houseService.getByID(id);
+	public void getHouseByID(@Suspended AsyncResponse asyncResponse, @PathParam("id") String id) {
+		AsyncExecution.run(asyncResponse, () -> {
+			Optional<byte[]> house = houseService.getViewByID(id);
+
+			if (house.isPresent()) {
+				return Response.ok(house.get(), MediaType.APPLICATION_JSON).build();
+			} else {
+				throw new NotFoundException("House with the given id does not exist");
+			}
+		});
+	}
 
-        if (response.getItem().isPresent()) {
-			House house = new House(response.getItem().get());
-			return Response.ok(house).build();
-		} else {
-			throw new NotFoundException("House with the given id does not exist");
-		}
+	/**
+	 * Returns the availability of a house, either for a period or for a whole month.
+	 * With start-date and end-date, the available period containing them is returned, if there is one.
+	 * With month, given as yyyy-MM, the available periods within the month are returned, cut to the month.
+	 * @param id of the house
+	 * @param startDate of the period
+	 * @param endDate of the period
+	 * @param month of the free windows
+	 * @return the available periods found, 404 if there is no such house
+	 */
+	@GET
+	@Path("/{id}/availability")
+	@Produces(MediaType.APPLICATION_JSON)
+	public void getAvailability(@Suspended AsyncResponse asyncResponse, @PathParam("id") String id,
+								@QueryParam("start-date") String startDate,
+								@QueryParam("end-date") String endDate,
+								@QueryParam("month") String month) {
+		AsyncExecution.run(asyncResponse, () -> {
+			Optional<List<AvailablePeriod>> periods;
+
+			if (isValidQuery(startDate) && isValidQuery(endDate)) {
+				periods = houseService.findAvailablePeriod(id, parseDate(startDate), parseDate(endDate))
+						.map(List::of)
+						.or(() -> houseService.getByID(id).getItem().map(house -> List.of()));
+			} else if (isValidQuery(month)) {
+				YearMonth yearMonth;
+				try {
+					yearMonth = YearMonth.parse(month.trim());
+				} catch (DateTimeParseException e) {
+					throw new BadRequestException("month must be given as yyyy-MM");
+				}
+				periods = houseService.getFreeWindows(id, yearMonth.atDay(1), yearMonth.atEndOfMonth());
+			} else {
+				return Response.status(400).build();
+			}
+
+			if (periods.isEmpty())
+				throw new NotFoundException("House with the given id does not exist");
+
+			return Response.ok(periods.get()).build();
+		});
 	}
 
 	/**
@@ -119,20 +195,25 @@ public class HouseResource {
 	 */
 	@DELETE
 	@Path("/{id}")
-	public Response deleteHouse(@CookieParam("scc:session") Cookie session,
+	public void deleteHouse(@Suspended AsyncResponse asyncResponse, @CookieParam("scc:session") Cookie session,
 								@PathParam("id") String id) {
-		ServiceResponse<HouseDAO> response = houseService.getByID(id);
+		AsyncExecution.run(asyncResponse, () -> {
+			RequestContext context = RequestContext.of(request);
 
-		if (response.getItem().isEmpty())
-			return Response.status(404).build();
+			// The session and the house are looked up in parallel
+			CompletableFuture<Optional<String>> sessionUser = lookupSession(context, session);
+			ServiceResponse<HouseDAO> response = RequestContext.await(context.getByIDAsync(houseService, id));
+
+			if (response.getItem().isEmpty())
+				return Response.status(404).build();
 
-		if (session == null || session.getValue() == null ||
-				userService.userSessionInvalid(session.getValue(), response.getItem().get().getOwnerID()))
-			return Response.status(401).build();
+			if (!RequestContext.await(sessionUser).map(response.getItem().get().getOwnerID()::equals).orElse(false))
+				return Response.status(401).build();
 
-		ServiceResponse<Object> deleteResponse = houseService.deleteByID(id);
+			ServiceResponse<Object> deleteResponse = context.deleteByID(houseService, id);
 
-		return Response.status(deleteResponse.getStatusCode()).build();
+			return Response.status(deleteResponse.getStatusCode()).build();
+		});
 	}
 
 	/**
@@ -141,43 +222,101 @@ public class HouseResource {
 	 * - userID
 	 * - city
 	 * - city & start-date & end-date
+	 * - ids, a comma separated list of house ids to fetch at once
+	 * If limit or cursor is given, a single page is returned and the cursor of the next page is set in the X-Next-Cursor header.
 	 * @param userID of the owner of the house
 	 * @param city of the house
 	 * @param startDate of the period
 	 * @param endDate of the period
+	 * @param ids of the houses to fetch, unknown ids are left out
+	 * @param limit maximum number of houses in the page
+	 * @param cursor of the page, as returned with the previous page
 	 * @return all houses for the given query parameters
 	 */
 	@GET
 	@Path("/")
 	@Produces(MediaType.APPLICATION_JSON)
-	public Response getHousesByQuery(@QueryParam("user-id") String userID,
+	public void getHousesByQuery(@Suspended AsyncResponse asyncResponse, @QueryParam("user-id") String userID,
 									 @QueryParam("city") String city,
 									 @QueryParam("start-date") String startDate,
-									 @QueryParam("end-date") String endDate) {
-		ServiceResponse<List<HouseDAO>> response;
-
-		if (isValidQuery(userID)) { // List of houses of a given user
-			response = MongoDBLayer.getInstance().getHouseContainer().getHousesByUserID(userID);
-		} else if (isValidQuery(city) && isValidQuery(startDate) && isValidQuery(endDate)) { // Search of available houses for a given period and location
-			response = MongoDBLayer.getInstance().getHouseContainer().getHousesByCityAndPeriod(city, startDate, endDate);
-		} else if (isValidQuery(city)) { // List of available houses for a given location
-			response = MongoDBLayer.getInstance().getHouseContainer().getHousesByCity(city);
-		} else {
-			return Response.status(400).build();
-		}
+									 @QueryParam("end-date") String endDate,
+									 @QueryParam("ids") String ids,
+									 @QueryParam("limit") Integer limit,
+									 @QueryParam("cursor") String cursor) {
+		AsyncExecution.run(asyncResponse, () -> {
+			if (isValidQuery(ids)) {
+				return getHousesByIDs(ids);
+			}
+
+			if (Pagination.isRequested(limit, cursor)) {
+				return getHousesPageByQuery(userID, city, startDate, endDate, Pagination.pageSize(limit), cursor);
+			}
+
+			Supplier<Stream<HouseDAO>> response;
+
+			if (isValidQuery(userID)) { // List of houses of a given user
+				response = () -> houseService.streamHousesByUserID(userID);
+			} else if (isValidQuery(city) && isValidQuery(startDate) && isValidQuery(endDate)) { // Search of available houses for a given period and location
+				LocalDate start = parseDate(startDate);
+				LocalDate end = parseDate(endDate);
+				response = () -> houseService.streamHousesByCityAndPeriod(city, start, end);
+			} else if (isValidQuery(city)) { // List of available houses for a given location
+				response = () -> houseService.streamHousesByCity(city);
+			} else {
+				return Response.status(400).build();
+			}
+
+			return JsonStreaming.ok(response, House::new);
+		});
+	}
 
-		if (response.getItem().isEmpty()) {
-			throw new NotFoundException();
-		}
+	private Response getHousesByIDs(String ids) {
+		List<String> houseIDs = Arrays.stream(ids.split(","))
+				.map(String::trim)
+				.filter(id -> !id.isEmpty())
+				.distinct()
+				.toList();
+
+		if (houseIDs.size() > Constants.maxPageSize)
+			return Response.status(400).entity("At most " + Constants.maxPageSize + " ids per request").build();
+
+		ServiceResponse<List<HouseDAO>> response = houseService.getByIDs(houseIDs);
+
+		if (response.getItem().isEmpty())
+			return Response.status(response.getStatusCode()).build();
 
 		List<House> houses = response.getItem().get()
 				.stream()
 				.map(House::new)
-				.collect(Collectors.toList());
+				.toList();
 
 		return Response.ok(houses).build();
 	}
 
+	private Response getHousesPageByQuery(String userID, String city, String startDate, String endDate, int limit, String cursor) {
+		ServiceResponse<Page<HouseDAO>> response;
+
+		if (isValidQuery(userID)) {
+			response = houseService.getHousesByUserID(userID, cursor, limit);
+		} else if (isValidQuery(city) && isValidQuery(startDate) && isValidQuery(endDate)) {
+			response = houseService.getHousesByCityAndPeriod(city, parseDate(startDate), parseDate(endDate), cursor, limit);
+		} else if (isValidQuery(city)) {
+			response = houseService.getHousesByCity(city, cursor, limit);
+		} else {
+			return Response.status(400).build();
+		}
+
+		return Pagination.toResponse(response, House::new);
+	}
+
+	private LocalDate parseDate(String date) {
+		try {
+			return LocalDate.parse(date.trim(), Constants.dateFormat);
+		} catch (DateTimeParseException e) {
+			throw new BadRequestException("Dates must be given as yyyy-MM-dd");
+		}
+	}
+
 	private boolean isValidQuery(String string) {
 		return string != null && !string.trim().isEmpty();
 	}
@@ -189,15 +328,10 @@ public class HouseResource {
 	@GET
 	@Path("/discounted-soon")
 	@Produces(MediaType.APPLICATION_JSON)
-	public Response getDiscountedHousesNearFuture() {
-		List<HouseDAO> discountedSoon = houseService.getDiscountedSoon();
-
-		List<House> houses = discountedSoon
-				.stream()
-				.map(House::new)
-				.toList();
-
-		return Response.ok(houses).build();
+	public void getDiscountedHousesNearFuture(@Suspended AsyncResponse asyncResponse) {
+		AsyncExecution.run(asyncResponse, () -> {
+			return JsonStreaming.ok(houseService::streamDiscountedSoon, House::new);
+		});
 	}
 
 	/////////////////// PHOTOS ENDPOINTS ///////////////////////
@@ -205,40 +339,59 @@ public class HouseResource {
 	@Path("/{houseID}/photo")
 	@Consumes(MediaType.APPLICATION_OCTET_STREAM)
 	@Produces(MediaType.TEXT_PLAIN)
-	public Response uploadPhoto(@CookieParam("scc:session") Cookie session,
+	public void uploadPhoto(@Suspended AsyncResponse asyncResponse, @CookieParam("scc:session") Cookie session,
 								@PathParam("houseID") String houseID,
 								byte[] photo) {
-		Optional<HouseDAO> optionalHouse = houseService.getByID(houseID).getItem();
+		AsyncExecution.run(asyncResponse, () -> {
+			RequestContext context = RequestContext.of(request);
 
-        if (optionalHouse.isEmpty())
-			throw new NotFoundException("House doesn't exist.");
+			// The session and the house are looked up in parallel
+			CompletableFuture<Optional<String>> sessionUser = lookupSession(context, session);
+			Optional<HouseDAO> optionalHouse = RequestContext.await(context.getByIDAsync(houseService, houseID)).getItem();
 
-		HouseDAO house = optionalHouse.get();
+	        if (optionalHouse.isEmpty())
+				throw new NotFoundException("House doesn't exist.");
 
-		if (session == null || session.getValue() == null ||
-				userService.userSessionInvalid(session.getValue(), house.getOwnerID()))
-			throw new NotAuthorizedException("Not authorized.");
+			// The house may be the cached instance, shared with other requests
+			HouseDAO house = new HouseDAO(optionalHouse.get());
 
-		String newPhotoID = UUID.randomUUID().toString();
-		mediaService.getHousesContainer().upsertImage(newPhotoID, photo);
+			if (!RequestContext.await(sessionUser).map(house.getOwnerID()::equals).orElse(false))
+				throw new NotAuthorizedException("Not authorized.");
 
-		ArrayList<String> photoIDs = new ArrayList<>(house.getPhotoIDs());
-		photoIDs.add(newPhotoID);
-		house.setPhotoIDs(photoIDs);
-		houseService.upsert(house);
+			String newPhotoID = UUID.randomUUID().toString();
+			mediaService.getHousesContainer().upsertImage(newPhotoID, photo);
 
-		return Response.ok().build();
+			// Only the photos change, the rest of the house is kept as currently stored
+			ServiceResponse<HouseDAO> response = houseService.update(houseID, current -> {
+				ArrayList<String> photoIDs = new ArrayList<>(current.getPhotoIDs());
+				photoIDs.add(newPhotoID);
+				current.setPhotoIDs(photoIDs);
+				return current;
+			});
+
+			return Response.status(response.getStatusCode()).build();
+		});
 	}
 
 	@Path("/photo/{id}")
 	@GET
 	@Produces({"image/png", "image/jpeg"})
-	public Response getPhoto(@PathParam("id") String id) {
-		Optional<byte[]> byteArray = mediaService.getHousesContainer().getImageBytes(id);
+	public void getPhoto(@Suspended AsyncResponse asyncResponse, @PathParam("id") String id) {
+		AsyncExecution.run(asyncResponse, () -> {
+			Optional<byte[]> byteArray = mediaService.getHousesContainer().getImageBytes(id);
+
+			if (byteArray.isEmpty())
+				throw new NotFoundException("Image not found.");
 
-		if (byteArray.isEmpty())
-			throw new NotFoundException("Image not found.");
+			return Response.ok(byteArray.get()).build();
+		});
+	}
+
+	// Starts the lookup of the user of the session, empty without a session cookie
+	private CompletableFuture<Optional<String>> lookupSession(RequestContext context, Cookie session) {
+		if (session == null || session.getValue() == null)
+			return CompletableFuture.completedFuture(Optional.empty());
 
-		return Response.ok(byteArray.get()).build();
+		return context.getUserIDBySessionAsync(userService, session.getValue());
 	}
 }
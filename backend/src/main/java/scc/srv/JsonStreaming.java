@@ -0,0 +1,43 @@
+package scc.srv;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import scc.cache.ServiceRegistry;
+
+import java.util.Iterator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Writes list responses as a json array element by element, while the items are read from the database,
+ * instead of materializing the whole list before serializing it
+ */
+class JsonStreaming {
+    private static final ObjectMapper mapper = ServiceRegistry.getInstance().getJsonMapper();
+
+    /**
+     * @param items opens the stream of items, it is only opened once the response body is written and always closed
+     * @param view maps each item to its representation returned to the clients
+     */
+    static <T, R> Response ok(Supplier<Stream<T>> items, Function<T, R> view) {
+        StreamingOutput body = output -> {
+            try (Stream<T> stream = items.get();
+                 JsonGenerator generator = mapper.getFactory().createGenerator(output)) {
+                generator.writeStartArray();
+
+                Iterator<T> iterator = stream.iterator();
+                while (iterator.hasNext()) {
+                    generator.writeObject(view.apply(iterator.next()));
+                }
+
+                generator.writeEndArray();
+            }
+        };
+
+        return Response.ok(body, MediaType.APPLICATION_JSON).build();
+    }
+}
@@ -0,0 +1,48 @@
+package scc.srv;
+
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.core.Response;
+import scc.cache.ServiceResponse;
+import scc.persistence.db.Page;
+import scc.utils.Constants;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Helpers for the list endpoints supporting the limit and cursor query parameters.
+ * The cursor of the next page is returned in the X-Next-Cursor header, the body stays a json array.
+ */
+class Pagination {
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    static boolean isRequested(Integer limit, String cursor) {
+        return limit != null || cursor != null;
+    }
+
+    static int pageSize(Integer limit) {
+        if (limit == null)
+            return Constants.defaultPageSize;
+
+        if (limit < 1)
+            throw new BadRequestException("limit must be positive");
+
+        return Math.min(limit, Constants.maxPageSize);
+    }
+
+    static <T, R> Response toResponse(ServiceResponse<Page<T>> response, Function<T, R> mapper) {
+        if (response.getItem().isEmpty())
+            return Response.status(response.getStatusCode()).build();
+
+        Page<T> page = response.getItem().get();
+        List<R> items = page.getItems()
+                .stream()
+                .map(mapper)
+                .toList();
+
+        Response.ResponseBuilder builder = Response.ok(items);
+        page.getNextCursor().ifPresent(cursor -> builder.header(NEXT_CURSOR_HEADER, cursor));
+
+        return builder.build();
+    }
+}
@@ -1,5 +1,8 @@
 package scc.srv;
 
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.Cookie;
 import jakarta.ws.rs.core.Response;
 
@@ -8,14 +11,17 @@ import java.util.*;
 
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
+import org.jboss.resteasy.spi.HttpRequest;
 import scc.cache.HouseService;
 import scc.cache.QuestionsService;
+import scc.cache.ServiceRegistry;
 import scc.cache.ServiceResponse;
 import scc.cache.UserService;
 import scc.data.Questions;
 import scc.data.QuestionsDAO;
 import scc.data.house.HouseDAO;
 import java.text.SimpleDateFormat;
+import java.util.function.Function;
 
 /**
  * Class with control endpoints.
@@ -24,9 +30,12 @@ import java.text.SimpleDateFormat;
 
 @Path("/house/{houseId}/question")
 public class QuestionResource {
-    private final HouseService houseService = new HouseService();
-    private final QuestionsService questionsService = new QuestionsService();
-    private final UserService userService = new UserService();
+    private final HouseService houseService = ServiceRegistry.getInstance().getHouseService();
+    private final QuestionsService questionsService = ServiceRegistry.getInstance().getQuestionsService();
+    private final UserService userService = ServiceRegistry.getInstance().getUserService();
+
+    @Context
+    private HttpRequest request;
 
     /**
      * Crete a new question for a house
@@ -38,55 +47,70 @@ public class QuestionResource {
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response createQuestion(@CookieParam("scc:session") Cookie session,
+    public void createQuestion(@Suspended AsyncResponse asyncResponse, @CookieParam("scc:session") Cookie session,
                                    @PathParam("houseId") String houseId,
                                    Questions questions) {
-        if (session == null || session.getValue() == null)
-            return Response.status(401).build();
+        AsyncExecution.run(asyncResponse, () -> {
+            RequestContext context = RequestContext.of(request);
+
+            if (session == null || session.getValue() == null)
+                return Response.status(401).build();
 
-        Optional<String> userID = userService.getUserIDBySession(session.getValue());
+            Optional<String> userID = context.getUserIDBySession(userService, session.getValue());
 
-        if (userID.isEmpty())
-            return Response.status(401).build();
+            if (userID.isEmpty())
+                return Response.status(401).build();
 
-        Optional<HouseDAO> house = houseService.getByID(houseId).getItem();
-        if (house.isEmpty()) {
-            return Response.status(404, "House doesn't exist.").build();
-        }
+            Optional<HouseDAO> house = context.getByID(houseService, houseId).getItem();
+            if (house.isEmpty()) {
+                return Response.status(404, "House doesn't exist.").build();
+            }
         
-        String id = UUID.randomUUID().toString();
-        String ts = new SimpleDateFormat("yyyy-MM-dd.HH-mm-ss").format(new java.util.Date());
-        QuestionsDAO questionDAO = new QuestionsDAO(id, houseId, userID.get(), questions.getText(), ts, "", "", "");
+            String id = UUID.randomUUID().toString();
+            String ts = new SimpleDateFormat("yyyy-MM-dd.HH-mm-ss").format(new java.util.Date());
+            QuestionsDAO questionDAO = new QuestionsDAO(id, houseId, userID.get(), questions.getText(), ts, "", "", "");
 
-        ServiceResponse<QuestionsDAO> response = questionsService.upsert(questionDAO);
-        if (response.getStatusCode() > 300)
-            return Response.status(response.getStatusCode()).build();
+            ServiceResponse<QuestionsDAO> response = context.upsert(questionsService, questionDAO);
+            if (response.getStatusCode() > 300)
+                return Response.status(response.getStatusCode()).build();
         
-        return Response.created(URI.create("/house/" + houseId + "/question/" + id)).build();
+            return Response.created(URI.create("/house/" + houseId + "/question/" + id)).build();
+        });
     }
 
     /**
      * Get all questions for a house
+     * If limit or cursor is given, a single page is returned and the cursor of the next page is set in the X-Next-Cursor header.
      * @param houseId related to the questions
+     * @param limit maximum number of questions in the page
+     * @param cursor of the page, as returned with the previous page
      * @return an array of all questions
      */
     @Path("/")
     @GET
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getQuestions(@PathParam("houseId") String houseId) {
-        Optional<HouseDAO> house = houseService.getByID(houseId).getItem();
-        if (house.isEmpty()) {
-            return Response.status(404, "House doesn't exist.").build();
-        }
-
-        Optional<List<QuestionsDAO>> optionalQuestion = questionsService.getQuestions(houseId).getItem();
-
-        if (optionalQuestion.isEmpty()) {
-            return Response.status(404).build();
-        }
+    public void getQuestions(@Suspended AsyncResponse asyncResponse, @PathParam("houseId") String houseId,
+                                 @QueryParam("limit") Integer limit,
+                                 @QueryParam("cursor") String cursor) {
+        AsyncExecution.run(asyncResponse, () -> {
+            Optional<HouseDAO> house = houseService.getByID(houseId).getItem();
+            if (house.isEmpty()) {
+                return Response.status(404, "House doesn't exist.").build();
+            }
+
+            if (Pagination.isRequested(limit, cursor)) {
+                return Pagination.toResponse(questionsService.getQuestions(houseId, cursor, Pagination.pageSize(limit)), Function.identity());
+            }
+
+            Optional<List<QuestionsDAO>> optionalQuestion = questionsService.getQuestions(houseId).getItem();
+
+            if (optionalQuestion.isEmpty()) {
+                return Response.status(404).build();
+            }
         
-        return Response.ok(optionalQuestion.get()).build();
+            return Response.ok(optionalQuestion.get()).build();
+        });
     }
 
     /**
@@ -98,13 +122,15 @@ public class QuestionResource {
     @GET
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getQuestion(@PathParam("id") String id) {
-        ServiceResponse<QuestionsDAO> res = questionsService.getByID(id);
-        if (res.getItem().isPresent()) {
-            return Response.ok(res.getItem().get().toString()).build();
-        } else {
-            throw new NotFoundException("No question for the given ID found.");
-        }
+    public void getQuestion(@Suspended AsyncResponse asyncResponse, @PathParam("id") String id) {
+        AsyncExecution.run(asyncResponse, () -> {
+            ServiceResponse<QuestionsDAO> res = questionsService.getByID(id);
+            if (res.getItem().isPresent()) {
+                return Response.ok(res.getItem().get().toString()).build();
+            } else {
+                throw new NotFoundException("No question for the given ID found.");
+            }
+        });
     }
 
     /**
@@ -117,23 +143,27 @@ public class QuestionResource {
     @DELETE
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response deleteQuestion(@CookieParam("scc:session") Cookie session,
+    public void deleteQuestion(@Suspended AsyncResponse asyncResponse, @CookieParam("scc:session") Cookie session,
                                    @PathParam("id") String id) {
-        ServiceResponse<QuestionsDAO> questionResponse = questionsService.getByID(id);
+        AsyncExecution.run(asyncResponse, () -> {
+            RequestContext context = RequestContext.of(request);
+
+            ServiceResponse<QuestionsDAO> questionResponse = context.getByID(questionsService, id);
 
-        if (questionResponse.getItem().isEmpty())
-            throw new NotFoundException("There exists no question for the given id.");
+            if (questionResponse.getItem().isEmpty())
+                throw new NotFoundException("There exists no question for the given id.");
 
-        if (session == null || session.getValue() == null ||
-                userService.userSessionInvalid(session.getValue(), questionResponse.getItem().get().getUserId()))
-            throw new NotAuthorizedException(id);
+            if (session == null || session.getValue() == null ||
+                    context.userSessionInvalid(userService, session.getValue(), questionResponse.getItem().get().getUserId()))
+                throw new NotAuthorizedException(id);
 
-        ServiceResponse<Object> deleteResponse = questionsService.deleteByID(id);
+            ServiceResponse<Object> deleteResponse = context.deleteByID(questionsService, id);
 
-        if (deleteResponse.getStatusCode() < 300) {
-            return Response.ok().build();
-        } else {
-            return Response.status(deleteResponse.getStatusCode()).build();
-        }
+            if (deleteResponse.getStatusCode() < 300) {
+                return Response.ok().build();
+            } else {
+                return Response.status(deleteResponse.getStatusCode()).build();
+            }
+        });
     }
 }
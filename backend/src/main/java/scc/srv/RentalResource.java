@@ -1,97 +1,103 @@
 package scc.srv;
 
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.Cookie;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import org.jboss.resteasy.spi.HttpRequest;
+import scc.cache.BookingEngine;
 import scc.cache.HouseService;
 import scc.cache.RentalService;
+import scc.cache.ServiceRegistry;
 import scc.cache.ServiceResponse;
 import scc.cache.UserService;
 import scc.data.Rental;
 import scc.data.RentalDAO;
 import scc.data.house.AvailablePeriod;
 import scc.data.house.HouseDAO;
-import scc.utils.Constants;
 
 import java.net.URI;
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
-import java.util.HashSet;
 import java.util.Optional;
-import java.util.Set;
 import java.util.UUID;
-import java.util.List;
 
 /**
  * Resource for accessing rentals
  */
 @Path("/house/{houseID}/rental")
 public class RentalResource {
-    private final HouseService houseService = new HouseService();
-    private final RentalService rentalService = new RentalService();
-    private final UserService userService = new UserService();
+    private final HouseService houseService = ServiceRegistry.getInstance().getHouseService();
+    private final RentalService rentalService = ServiceRegistry.getInstance().getRentalService();
+    private final UserService userService = ServiceRegistry.getInstance().getUserService();
+    private final BookingEngine bookingEngine = ServiceRegistry.getInstance().getBookingEngine();
+
+    @Context
+    private HttpRequest request;
 
     @POST
     @Path("/")
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response postRental(@CookieParam("scc:session") Cookie session,
+    public void postRental(@Suspended AsyncResponse asyncResponse, @CookieParam("scc:session") Cookie session,
                                @PathParam("houseID") String houseID,
                                RentalDAO rentalDAO) {
-        String rentalID = UUID.randomUUID().toString();
-        rentalDAO.setId(rentalID);
-        rentalDAO.setHouseID(houseID);
-
-        Optional<String> userID = userService.getUserIDBySession(session.getValue());
-        if (userID.isEmpty())
-            return Response.status(401).build();
-        rentalDAO.setTenantID(userID.get());
-
-        Optional<HouseDAO> optionalHouse = houseService.getByID(houseID).getItem();
-        if (optionalHouse.isEmpty()) {
-            throw new NotFoundException("House with the given id does not exist");
-        }
-
-        HouseDAO house = optionalHouse.get();
-
-        if (rentalDAO.getStartDate() == null || rentalDAO.getEndDate() == null) {
-            throw new BadRequestException("startDate and endDate mandatory");
-        }
-
-        LocalDate start = LocalDate.parse(rentalDAO.getStartDate(), Constants.dateFormat);
-        LocalDate end = LocalDate.parse(rentalDAO.getEndDate(), Constants.dateFormat);
-
-        // Check if there is an available period which contains the wanted rental period
-        Optional<AvailablePeriod> optionalPeriod = house
-                .getAvailablePeriods()
-                .stream()
-                .filter(p -> p.containsPeriod(start, end))
-                .findFirst();
-
-        if (optionalPeriod.isEmpty() || start.isEqual(end)) {
-            throw new BadRequestException("There is no available period for the given period.");
-        }
-
-        AvailablePeriod period = optionalPeriod.get();
-
-        // Update house available periods
-        Set<AvailablePeriod> newPeriods = new HashSet<>(house.getAvailablePeriods());
-        newPeriods.remove(period);
-        newPeriods.addAll(period.subtract(start, end));
-        house.setAvailablePeriods(newPeriods);
-        houseService.upsert(house);
-
-        // Compute price of the rental
-        long daysBetween = start.until(end, ChronoUnit.DAYS);
-        Float price = daysBetween * period.getNormalPricePerDay();
-        rentalDAO.setPrice(price);
-        ServiceResponse<RentalDAO> response = rentalService.upsert(rentalDAO);
-
-        if (response.getStatusCode() != 201)
-            return Response.status(response.getStatusCode()).build();
-
-        URI rentalPath = URI.create("/house/" + houseID + "/rental/" + rentalID);
-        return Response.created(rentalPath).build();
+        AsyncExecution.run(asyncResponse, () -> {
+            RequestContext context = RequestContext.of(request);
+
+            String rentalID = UUID.randomUUID().toString();
+            rentalDAO.setId(rentalID);
+            rentalDAO.setHouseID(houseID);
+
+            Optional<String> userID = context.getUserIDBySession(userService, session.getValue());
+            if (userID.isEmpty())
+                return Response.status(401).build();
+            rentalDAO.setTenantID(userID.get());
+
+            Optional<HouseDAO> optionalHouse = context.getByID(houseService, houseID).getItem();
+            if (optionalHouse.isEmpty()) {
+                throw new NotFoundException("House with the given id does not exist");
+            }
+
+            if (rentalDAO.getStartDate() == null || rentalDAO.getEndDate() == null) {
+                throw new BadRequestException("startDate and endDate mandatory");
+            }
+
+            LocalDate start = LocalDate.ofEpochDay(rentalDAO.startDay());
+            LocalDate end = LocalDate.ofEpochDay(rentalDAO.endDay());
+
+            if (start.isEqual(end)) {
+                throw new BadRequestException("There is no available period for the given period.");
+            }
+
+            // Take the rental period out of an available period of the house, safe against concurrent bookings
+            ServiceResponse<AvailablePeriod> booking = bookingEngine.reserve(houseID, start, end);
+            switch (booking.getStatusCode()) {
+                case 200:
+                    break;
+                case 404:
+                    throw new NotFoundException("House with the given id does not exist");
+                case 400:
+                    throw new BadRequestException("There is no available period for the given period.");
+                default:
+                    return Response.status(booking.getStatusCode()).build();
+            }
+
+            AvailablePeriod period = booking.getItem().get();
+
+            // Compute price of the rental
+            long daysBetween = rentalDAO.endDay() - rentalDAO.startDay();
+            Float price = daysBetween * period.getNormalPricePerDay();
+            rentalDAO.setPrice(price);
+            ServiceResponse<RentalDAO> response = context.upsert(rentalService, rentalDAO);
+
+            if (response.getStatusCode() != 201)
+                return Response.status(response.getStatusCode()).build();
+
+            URI rentalPath = URI.create("/house/" + houseID + "/rental/" + rentalID);
+            return Response.created(rentalPath).build();
+        });
     }
 
     /**
@@ -105,48 +111,53 @@ public class RentalResource {
     @PUT
     @Path("/{rentalID}")
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response putRental(@CookieParam("scc:session") Cookie session,
+    public void putRental(@Suspended AsyncResponse asyncResponse, @CookieParam("scc:session") Cookie session,
                               @PathParam("houseID") String houseID,
                               @PathParam("rentalID") String rentalID,
                               RentalDAO rentalDAO) {
-        ServiceResponse<RentalDAO> rentalResponse = rentalService.getByID(rentalID);
+        AsyncExecution.run(asyncResponse, () -> {
+            RequestContext context = RequestContext.of(request);
 
-        if (rentalResponse.getItem().isEmpty())
-            return Response.status(404).build();
+            ServiceResponse<RentalDAO> rentalResponse = context.getByID(rentalService, rentalID);
 
-        if (session == null || session.getValue() == null ||
-                userService.userSessionInvalid(session.getValue(), rentalResponse.getItem().get().getTenantID()))
-            return Response.status(401).build();
+            if (rentalResponse.getItem().isEmpty())
+                return Response.status(404).build();
 
-        rentalDAO.setId(rentalID);
-        rentalDAO.setHouseID(houseID);
-        rentalDAO.setTenantID(rentalResponse.getItem().get().getTenantID());
-        ServiceResponse<RentalDAO> response = rentalService.upsert(rentalDAO);
+            if (session == null || session.getValue() == null ||
+                    context.userSessionInvalid(userService, session.getValue(), rentalResponse.getItem().get().getTenantID()))
+                return Response.status(401).build();
 
-        return Response.status(response.getStatusCode()).build();
+            rentalDAO.setId(rentalID);
+            rentalDAO.setHouseID(houseID);
+            rentalDAO.setTenantID(rentalResponse.getItem().get().getTenantID());
+            ServiceResponse<RentalDAO> response = context.upsert(rentalService, rentalDAO);
+
+            return Response.status(response.getStatusCode()).build();
+        });
     }
 
     /**
      * Returns a list of all rentals for a given house
+     * If limit or cursor is given, a single page is returned and the cursor of the next page is set in the X-Next-Cursor header.
      *
      * @param houseID  the id of the house to which the rental belongs
+     * @param limit    maximum number of rentals in the page
+     * @param cursor   of the page, as returned with the previous page
      * @return Response json array containing all rentals
      */
     @GET
     @Path("/")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getRentalsForHouse(@PathParam("houseID") String houseID) {
-        ServiceResponse<List<RentalDAO>> response = rentalService.getRentalsForHouse(houseID);
-
-        if (response.getItem().isEmpty())
-            throw new NotFoundException("No rentals for the given house found.");
-
-        List<Rental> rentals = response.getItem().get()
-                .stream()
-                .map(Rental::new)
-                .toList();
-
-        return Response.ok(rentals).build();
+    public void getRentalsForHouse(@Suspended AsyncResponse asyncResponse, @PathParam("houseID") String houseID,
+                                       @QueryParam("limit") Integer limit,
+                                       @QueryParam("cursor") String cursor) {
+        AsyncExecution.run(asyncResponse, () -> {
+            if (Pagination.isRequested(limit, cursor)) {
+                return Pagination.toResponse(rentalService.getRentalsForHouse(houseID, cursor, Pagination.pageSize(limit)), Rental::new);
+            }
+
+            return JsonStreaming.ok(() -> rentalService.streamRentalsForHouse(houseID), Rental::new);
+        });
     }
 
     /**
@@ -159,15 +170,17 @@ public class RentalResource {
     @GET
     @Path("/{rentalID}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getRentalByID(@PathParam("houseID") String houseID, @PathParam("rentalID") String rentalID) {
-        ServiceResponse<RentalDAO> response = rentalService.getByID(rentalID);
+    public void getRentalByID(@Suspended AsyncResponse asyncResponse, @PathParam("houseID") String houseID, @PathParam("rentalID") String rentalID) {
+        AsyncExecution.run(asyncResponse, () -> {
+            ServiceResponse<RentalDAO> response = rentalService.getByID(rentalID);
 
-        if (response.getItem().isEmpty())
-            throw new NotFoundException("Rental with the given id does not exist");
+            if (response.getItem().isEmpty())
+                throw new NotFoundException("Rental with the given id does not exist");
 
-        Rental rental = new Rental(response.getItem().get());
+            Rental rental = new Rental(response.getItem().get());
 
-        return Response.ok(rental).build();
+            return Response.ok(rental).build();
+        });
     }
 
     /**
@@ -178,20 +191,24 @@ public class RentalResource {
      */
     @DELETE
     @Path("/{rentalID}")
-    public Response deleteRental(@CookieParam("scc:session") Cookie session,
+    public void deleteRental(@Suspended AsyncResponse asyncResponse, @CookieParam("scc:session") Cookie session,
                                  @PathParam("houseID") String houseID,
                                  @PathParam("rentalID") String rentalID) {
-        ServiceResponse<RentalDAO> rentalResponse = rentalService.getByID(rentalID);
+        AsyncExecution.run(asyncResponse, () -> {
+            RequestContext context = RequestContext.of(request);
 
-        if (rentalResponse.getItem().isEmpty())
-            return Response.status(404).build();
+            ServiceResponse<RentalDAO> rentalResponse = context.getByID(rentalService, rentalID);
 
-        if (session == null || session.getValue() == null ||
-                userService.userSessionInvalid(session.getValue(), rentalResponse.getItem().get().getTenantID()))
-            return Response.status(401).build();
+            if (rentalResponse.getItem().isEmpty())
+                return Response.status(404).build();
 
-        ServiceResponse<Object> response = rentalService.deleteByID(rentalID);
+            if (session == null || session.getValue() == null ||
+                    context.userSessionInvalid(userService, session.getValue(), rentalResponse.getItem().get().getTenantID()))
+                return Response.status(401).build();
 
-        return Response.status(response.getStatusCode()).build();
+            ServiceResponse<Object> response = context.deleteByID(rentalService, rentalID);
+
+            return Response.status(response.getStatusCode()).build();
+        });
     }
 }
@@ -0,0 +1,96 @@
+package scc.srv;
+
+import org.jboss.resteasy.spi.HttpRequest;
+import scc.cache.AbstractService;
+import scc.cache.Identifiable;
+import scc.cache.ServiceResponse;
+import scc.cache.UserService;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * State of a single request: the sessions resolved and the entities loaded so far,
+ * so an endpoint looking up the same session or entity several times only pays for it once.
+ * The context is stored as a property of the request rather than in a thread local,
+ * so it follows the request when it is resumed on another thread.
+ */
+public class RequestContext {
+    static final String PROPERTY = RequestContext.class.getName();
+
+    private final Map<String, CompletableFuture<Optional<String>>> sessions = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<? extends ServiceResponse<?>>> entities = new ConcurrentHashMap<>();
+
+    /**
+     * @return the context the filter attached to the request, a fresh one if there is none
+     */
+    static RequestContext of(HttpRequest request) {
+        if (request != null && request.getAttribute(PROPERTY) instanceof RequestContext context)
+            return context;
+
+        RequestContext context = new RequestContext();
+        if (request != null)
+            request.setAttribute(PROPERTY, context);
+
+        return context;
+    }
+
+    Optional<String> getUserIDBySession(UserService userService, String sessionID) {
+        return await(sessions.computeIfAbsent(sessionID, id -> CompletableFuture.completedFuture(userService.getUserIDBySession(id))));
+    }
+
+    CompletableFuture<Optional<String>> getUserIDBySessionAsync(UserService userService, String sessionID) {
+        return sessions.computeIfAbsent(sessionID, userService::getUserIDBySessionAsync);
+    }
+
+    boolean userSessionInvalid(UserService userService, String sessionID, String userID) {
+        return !getUserIDBySession(userService, sessionID).map(userID::equals).orElse(false);
+    }
+
+    @SuppressWarnings("unchecked")
+    <T extends Identifiable> ServiceResponse<T> getByID(AbstractService<T, ?> service, String id) {
+        return await((CompletableFuture<ServiceResponse<T>>) entities.computeIfAbsent(key(service, id), k -> CompletableFuture.completedFuture(service.getByID(id))));
+    }
+
+    @SuppressWarnings("unchecked")
+    <T extends Identifiable> CompletableFuture<ServiceResponse<T>> getByIDAsync(AbstractService<T, ?> service, String id) {
+        return (CompletableFuture<ServiceResponse<T>>) entities.computeIfAbsent(key(service, id), k -> service.getByIDAsync(id));
+    }
+
+    // Upserts through the service and remembers the stored entity for the rest of the request
+    <T extends Identifiable> ServiceResponse<T> upsert(AbstractService<T, ?> service, T item) {
+        ServiceResponse<T> response = service.upsert(item);
+        if (response.getStatusCode() < 300 && response.getItem().isPresent()) {
+            entities.put(key(service, item.getId()), CompletableFuture.completedFuture(new ServiceResponse<>(200, response.getItem().get())));
+        } else {
+            entities.remove(key(service, item.getId()));
+        }
+
+        return response;
+    }
+
+    <T extends Identifiable> ServiceResponse<Object> deleteByID(AbstractService<T, ?> service, String id) {
+        ServiceResponse<Object> response = service.deleteByID(id);
+        entities.put(key(service, id), CompletableFuture.completedFuture(new ServiceResponse<>(404)));
+
+        return response;
+    }
+
+    // Waits for the lookup, rethrowing its failure as thrown by the blocking variant
+    static <R> R await(CompletableFuture<R> lookup) {
+        try {
+            return lookup.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw e;
+        }
+    }
+
+    private static String key(AbstractService<?, ?> service, String id) {
+        return service.getClass().getName() + ":" + id;
+    }
+}
@@ -0,0 +1,19 @@
+package scc.srv;
+
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.PreMatching;
+import jakarta.ws.rs.ext.Provider;
+
+/**
+ * Attaches a fresh RequestContext to every incoming request
+ */
+@Provider
+@PreMatching
+public class RequestContextFilter implements ContainerRequestFilter {
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        requestContext.setProperty(RequestContext.PROPERTY, new RequestContext());
+    }
+}
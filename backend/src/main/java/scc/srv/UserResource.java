@@ -1,10 +1,15 @@
 package scc.srv;
 
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.Cookie;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.NewCookie;
 import jakarta.ws.rs.core.Response;
+import org.jboss.resteasy.spi.HttpRequest;
+import scc.cache.ServiceRegistry;
 import scc.cache.ServiceResponse;
 import scc.cache.UserService;
 import scc.data.LoginCredentials;
@@ -12,6 +17,7 @@ import scc.data.User;
 import scc.data.UserDAO;
 import scc.persistence.media.FileSystemService;
 import scc.persistence.media.MediaService;
+import scc.utils.Constants;
 import scc.utils.Hash;
 
 import java.net.URI;
@@ -20,9 +26,12 @@ import java.util.UUID;
 
 @Path("/user")
 public class UserResource {
-    private final UserService userService = new UserService();
+    private final UserService userService = ServiceRegistry.getInstance().getUserService();
     private final MediaService mediaService = FileSystemService.getInstance();
 
+    @Context
+    private HttpRequest request;
+
     /**
      * Create a new user
      * @param credentials of the new user
@@ -32,21 +41,23 @@ public class UserResource {
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response createUser(LoginCredentials credentials) {
-        ServiceResponse<UserDAO> userResponse = userService.getByUsername(credentials.getUsername());
-        if (userResponse.getItem().isPresent())
-            return Response.status(400).entity("User already exists").build();
+    public void createUser(@Suspended AsyncResponse asyncResponse, LoginCredentials credentials) {
+        AsyncExecution.run(asyncResponse, () -> {
+            ServiceResponse<UserDAO> userResponse = userService.getByUsername(credentials.getUsername());
+            if (userResponse.getItem().isPresent())
+                return Response.status(400).entity("User already exists").build();
 
-        UserDAO user = credentials.toUserDAO();
-        String id = UUID.randomUUID().toString();
-        user.setId(id);
+            UserDAO user = credentials.toUserDAO();
+            String id = UUID.randomUUID().toString();
+            user.setId(id);
 
-        ServiceResponse<UserDAO> upsertResponse = userService.upsert(user);
+            ServiceResponse<UserDAO> upsertResponse = userService.upsert(user);
 
-        if (upsertResponse.getStatusCode() != 201)
-            return Response.status(upsertResponse.getStatusCode()).build();
+            if (upsertResponse.getStatusCode() != 201)
+                return Response.status(upsertResponse.getStatusCode()).build();
 
-        return Response.created(URI.create("/user/" + id)).build();
+            return Response.created(URI.create("/user/" + id)).build();
+        });
     }
 
     /**
@@ -60,20 +71,24 @@ public class UserResource {
     @PUT
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response updateUser(@CookieParam("scc:session") Cookie session, @PathParam("id") String id, LoginCredentials credentials) {
-        if (session == null || session.getValue() == null || userService.userSessionInvalid(session.getValue(), id))
-            return Response.status(401).build();
+    public void updateUser(@Suspended AsyncResponse asyncResponse, @CookieParam("scc:session") Cookie session, @PathParam("id") String id, LoginCredentials credentials) {
+        AsyncExecution.run(asyncResponse, () -> {
+            RequestContext context = RequestContext.of(request);
+
+            if (session == null || session.getValue() == null || context.userSessionInvalid(userService, session.getValue(), id))
+                return Response.status(401).build();
 
-        ServiceResponse<UserDAO> userResponse = userService.getByUsername(credentials.getUsername());
-        if (userResponse.getItem().isPresent())
-            return Response.status(400).entity("User already exists").build();
+            ServiceResponse<UserDAO> userResponse = userService.getByUsername(credentials.getUsername());
+            if (userResponse.getItem().isPresent())
+                return Response.status(400).entity("User already exists").build();
 
-        UserDAO user = credentials.toUserDAO();
-        user.setId(id);
+            UserDAO user = credentials.toUserDAO();
+            user.setId(id);
 
-        ServiceResponse<UserDAO> res = userService.upsert(user);
+            ServiceResponse<UserDAO> res = context.upsert(userService, user);
 
-        return Response.status(res.getStatusCode()).build();
+            return Response.status(res.getStatusCode()).build();
+        });
     }
 
     /**
@@ -84,15 +99,17 @@ public class UserResource {
     @Path("/{id}")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getUser(@PathParam("id") String id) {
-        ServiceResponse<UserDAO> res = userService.getByID(id);
+    public void getUser(@Suspended AsyncResponse asyncResponse, @PathParam("id") String id) {
+        AsyncExecution.run(asyncResponse, () -> {
+            ServiceResponse<UserDAO> res = userService.getByID(id);
 
-        if (res.getStatusCode() != 200 || res.getItem().isEmpty())
-            return Response.status(res.getStatusCode()).build();
+            if (res.getStatusCode() != 200 || res.getItem().isEmpty())
+                return Response.status(res.getStatusCode()).build();
 
-        User user = new User(res.getItem().get());
+            User user = new User(res.getItem().get());
 
-        return Response.ok(user).build();
+            return Response.ok(user).build();
+        });
     }
 
     /**
@@ -105,21 +122,25 @@ public class UserResource {
     @DELETE
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response deleteUser(@CookieParam("scc:session") Cookie session, @PathParam("id") String id) {
-        if (session == null || session.getValue() == null || userService.userSessionInvalid(session.getValue(), id))
-            return Response.status(401).build();
+    public void deleteUser(@Suspended AsyncResponse asyncResponse, @CookieParam("scc:session") Cookie session, @PathParam("id") String id) {
+        AsyncExecution.run(asyncResponse, () -> {
+            RequestContext context = RequestContext.of(request);
 
-        Optional<UserDAO> user = userService.getByID(id).getItem();
-        if (user.isEmpty())
-            return Response.status(400).entity("No such user").build();
+            if (session == null || session.getValue() == null || context.userSessionInvalid(userService, session.getValue(), id))
+                return Response.status(401).build();
 
-        userService.deleteByID(id);
+            Optional<UserDAO> user = context.getByID(userService, id).getItem();
+            if (user.isEmpty())
+                return Response.status(400).entity("No such user").build();
 
-         if (user.get().getPhotoID() != null) {
-             mediaService.getUsersContainer().deleteImage(user.get().getPhotoID());
-         }
+            context.deleteByID(userService, id);
 
-        return Response.ok().build();
+             if (user.get().getPhotoID() != null) {
+                 mediaService.getUsersContainer().deleteImage(user.get().getPhotoID());
+             }
+
+            return Response.ok().build();
+        });
     }
 
     /**
@@ -131,34 +152,60 @@ public class UserResource {
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response auth(LoginCredentials credentials) {
-        ServiceResponse<UserDAO> res = userService.getByUsername(credentials.getUsername());
-
-        if (res.getStatusCode() != 200 || res.getItem().isEmpty())
-            return Response.status(res.getStatusCode()).build();
-
-        UserDAO user = res.getItem().get();
-
-        if (!Hash.of(credentials.getPassword()).equals(user.getPasswordHash()))
-            return Response.status(401).build();
-
-        String sessionID = UUID.randomUUID().toString();
-        NewCookie cookie = new NewCookie.Builder("scc:session")
-                .value(sessionID)
-                .path("/")
-                .comment("sessionid")
-                .maxAge(3600)
-                .secure(false)
-                .httpOnly(true)
-                .build();
-
-        userService.putSession(sessionID, user.getId());
+    public void auth(@Suspended AsyncResponse asyncResponse, LoginCredentials credentials) {
+        AsyncExecution.run(asyncResponse, () -> {
+            ServiceResponse<UserDAO> res = userService.getByUsername(credentials.getUsername());
+
+            if (res.getStatusCode() != 200 || res.getItem().isEmpty())
+                return Response.status(res.getStatusCode()).build();
+
+            UserDAO user = res.getItem().get();
+
+            if (!Hash.of(credentials.getPassword()).equals(user.getPasswordHash()))
+                return Response.status(401).build();
+
+            String sessionID = userService.createSession(user.getId());
+            NewCookie cookie = new NewCookie.Builder("scc:session")
+                    .value(sessionID)
+                    .path("/")
+                    .comment("sessionid")
+                    .maxAge(Constants.sessionTTLSeconds)
+                    .secure(false)
+                    .httpOnly(true)
+                    .build();
+
+            return Response
+                    .ok()
+                    .cookie(cookie)
+                    .location(URI.create("/user/" + user.getId()))
+                    .build();
+        });
+    }
 
-        return Response
-                .ok()
-                .cookie(cookie)
-                .location(URI.create("/user/" + user.getId()))
-                .build();
+    /**
+     * End the session of the user
+     * @param session to end
+     * @return 200 and an expired session cookie
+     */
+    @Path("/logout")
+    @POST
+    public void logout(@Suspended AsyncResponse asyncResponse, @CookieParam("scc:session") Cookie session) {
+        AsyncExecution.run(asyncResponse, () -> {
+            if (session == null || session.getValue() == null)
+                return Response.status(401).build();
+
+            userService.deleteSession(session.getValue());
+
+            NewCookie cookie = new NewCookie.Builder("scc:session")
+                    .value("")
+                    .path("/")
+                    .maxAge(0)
+                    .secure(false)
+                    .httpOnly(true)
+                    .build();
+
+            return Response.ok().cookie(cookie).build();
+        });
     }
 
     /**
@@ -173,42 +220,49 @@ public class UserResource {
     @PUT
     @Consumes(MediaType.APPLICATION_OCTET_STREAM)
     @Produces(MediaType.TEXT_PLAIN)
-    public Response postPhoto(@CookieParam("scc:session") Cookie session, @PathParam("id") String id, byte[] photo) {
-        if (session == null || session.getValue() == null || userService.userSessionInvalid(session.getValue(), id))
-            return Response.status(401).build();
+    public void postPhoto(@Suspended AsyncResponse asyncResponse, @CookieParam("scc:session") Cookie session, @PathParam("id") String id, byte[] photo) {
+        AsyncExecution.run(asyncResponse, () -> {
+            RequestContext context = RequestContext.of(request);
+
+            if (session == null || session.getValue() == null || context.userSessionInvalid(userService, session.getValue(), id))
+                return Response.status(401).build();
 
-        Optional<UserDAO> userDAO = userService.getByID(id).getItem();
-        if (userDAO.isEmpty())
-            return Response.status(400).entity("No such user").build();
+            Optional<UserDAO> userDAO = context.getByID(userService, id).getItem();
+            if (userDAO.isEmpty())
+                return Response.status(400).entity("No such user").build();
 
-        UserDAO user = userDAO.get();
+            // The user may be the cached instance, shared with other requests
+            UserDAO user = new UserDAO(userDAO.get());
 
-        if (user.getPhotoID() == null) {
-            user.setPhotoID(UUID.randomUUID().toString());
-        }
+            if (user.getPhotoID() == null) {
+                user.setPhotoID(UUID.randomUUID().toString());
+            }
 
-        mediaService.getUsersContainer().upsertImage(user.getPhotoID(), photo);
+            mediaService.getUsersContainer().upsertImage(user.getPhotoID(), photo);
 
-        ServiceResponse<UserDAO> response = userService.upsert(user);
+            ServiceResponse<UserDAO> response = context.upsert(userService, user);
 
-        return Response.status(response.getStatusCode()).build();
+            return Response.status(response.getStatusCode()).build();
+        });
     }
 
     @Path("/{id}/photo")
     @GET
     @Produces({"image/png", "image/jpeg"})
-    public Response getPhoto(@PathParam("id") String id) {
-        Optional<UserDAO> userDAO = userService.getByID(id).getItem();
-        if (userDAO.isEmpty())
-            return Response.status(400).entity("No such user").build();
+    public void getPhoto(@Suspended AsyncResponse asyncResponse, @PathParam("id") String id) {
+        AsyncExecution.run(asyncResponse, () -> {
+            Optional<UserDAO> userDAO = userService.getByID(id).getItem();
+            if (userDAO.isEmpty())
+                return Response.status(400).entity("No such user").build();
 
-        UserDAO user = userDAO.get();
+            UserDAO user = userDAO.get();
 
-        Optional<byte[]> byteArray = mediaService.getUsersContainer().getImageBytes(user.getPhotoID());
+            Optional<byte[]> byteArray = mediaService.getUsersContainer().getImageBytes(user.getPhotoID());
 
-        if (byteArray.isEmpty())
-            throw new NotFoundException("Image not found for user.");
+            if (byteArray.isEmpty())
+                throw new NotFoundException("Image not found for user.");
 
-        return Response.ok(byteArray.get()).build();
+            return Response.ok(byteArray.get()).build();
+        });
     }
 }
@@ -1,12 +1,64 @@
 package scc.utils;
 
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 public class Constants {
     public static final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
     public static final boolean cachingEnabled = true;
 
+    // Maximum number of entries kept in the in-process near cache, per caching prefix
+    public static final int nearCacheCapacity = 2048;
+
+    // Longest time (in milliseconds) a near cache entry is served, bounding the staleness of an entry whose invalidation was missed
+    public static final long nearCacheTTLMillis = 30_000;
+
+    // Cache entries at least this large (in bytes) are stored compressed
+    public static final int cacheCompressionThreshold = 1024;
+
+    // Lifetime (in seconds) of a session since its last use, also the max age of the session cookie
+    public static final int sessionTTLSeconds = 3600;
+
+    // How often (in seconds) each node reloads the session revocation list from Redis, catching up with missed revocations
+    public static final int revocationsReloadSeconds = 60;
+
+    // Up to this fraction of the TTL is added at random to the expiry of cached entities
+    public static final double cacheTTLJitter = 0.1;
+
+    // Timeout of Redis commands and of waiting for a pooled Redis connection, in milliseconds
+    public static final int redisTimeoutMillis = 500;
+    public static final int redisMaxWaitMillis = 50;
+
+    // Consecutive Redis failures opening the circuit, and how often an open circuit probes Redis (in milliseconds)
+    public static final int cacheFailureThreshold = 3;
+    public static final int cacheProbeIntervalMillis = 1000;
+
+    // Entries read at least hotKeyThreshold times within hotKeyWindowMillis are hot. A hot entry is
+    // reloaded in the background once less than refreshAheadFraction of its TTL remains
+    public static final int hotKeyThreshold = 5;
+    public static final long hotKeyWindowMillis = 60_000;
+    public static final double refreshAheadFraction = 0.2;
+
+    // How long (in seconds) an id or username found not to exist is remembered by the caches
+    public static final int missingEntryTTLSeconds = 30;
+
+    // Largest search result kept in the query cache, larger results are streamed from the database every time
+    public static final int maxCachedQueryResults = 500;
+
+    // Attempts of a booking losing the race for a house against concurrent writes, before it gives up
+    public static final int bookingMaxAttempts = 10;
+
+    // Page size of the list endpoints when only a cursor is given, and the largest page a client may ask for
+    public static final int defaultPageSize = 50;
+    public static final int maxPageSize = 500;
+
+    // Threads and queued requests of the async request pool, when the JVM has no virtual threads
+    public static final int asyncPoolSize = 256;
+    public static final int asyncQueueSize = 1024;
+
     ///////////////////////////////// DB Env /////////////////////////////////
 
     public static String getDBConnectionURL() {
@@ -31,6 +83,35 @@ public class Constants {
         return System.getenv("REDIS_KEY");
     }
 
+    // "json" for plain json text, anything else for the compact binary encoding
+    public static String getCacheCodec() {
+        return System.getenv("CACHE_CODEC");
+    }
+
+    // Key signing the session tokens. When not set sessions are kept in Redis instead
+    public static String getSessionSecret() {
+        return System.getenv("SESSION_SECRET");
+    }
+
+    ///////////////////////////////// Server Env /////////////////////////////////
+
+    // Run the endpoints off the servlet container's worker threads
+    public static boolean asyncRequestsEnabled() {
+        return Boolean.parseBoolean(System.getenv("ASYNC_REQUESTS"));
+    }
+
+    // Comma separated ids of the users allowed to call the admin endpoints, none when not set
+    public static Set<String> getAdminUserIDs() {
+        String adminUserIDs = System.getenv("ADMIN_USER_IDS");
+        if (adminUserIDs == null)
+            return Set.of();
+
+        return Arrays.stream(adminUserIDs.split(","))
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .collect(Collectors.toSet());
+    }
+
     ///////////////////////////////// Blob Env /////////////////////////////////
 
     public static String getBlobConnectionString() {
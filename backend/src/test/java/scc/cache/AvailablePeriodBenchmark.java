@@ -0,0 +1,86 @@
+package scc.cache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scc.data.house.AvailablePeriod;
+import scc.utils.Constants;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of checking a booking against the periods of a house and subtracting it from the period found,
+ * with the dates parsed from their strings on every comparison, as before, and with the pre-parsed epoch days.
+ * The periods are walked in date order and the booking falls in the last one, so all periods are compared.
+ * Run with: mvn test-compile exec:exec -Pbenchmarks -Djmh.args="AvailablePeriodBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AvailablePeriodBenchmark {
+    @Param({"4", "32"})
+    public int periods;
+
+    private AvailablePeriod[] available;
+    private LocalDate from;
+    private LocalDate to;
+
+    @Setup
+    public void setUp() {
+        available = SampleHouses.house(200, periods).getAvailablePeriods().toArray(new AvailablePeriod[0]);
+        Arrays.sort(available, Comparator.comparing(AvailablePeriod::getStartDate));
+
+        LocalDate lastStart = LocalDate.of(2024, 1, 1).plusWeeks(2L * (periods - 1));
+        from = lastStart.plusDays(2);
+        to = lastStart.plusDays(4);
+    }
+
+    @Benchmark
+    public Set<AvailablePeriod> parsedStrings() {
+        for (AvailablePeriod period : available) {
+            LocalDate periodStart = LocalDate.parse(period.getStartDate(), Constants.dateFormat);
+            LocalDate periodEnd = LocalDate.parse(period.getEndDate(), Constants.dateFormat);
+
+            if (!periodStart.isAfter(from) && !periodEnd.isBefore(to)) {
+                Set<AvailablePeriod> remainder = new HashSet<>();
+                if (!periodStart.isEqual(from))
+                    remainder.add(new AvailablePeriod(periodStart.toString(), from.toString(), period.getNormalPricePerDay(), period.getPromotionPricePerDay()));
+                if (!periodEnd.isEqual(to))
+                    remainder.add(new AvailablePeriod(to.toString(), periodEnd.toString(), period.getNormalPricePerDay(), period.getPromotionPricePerDay()));
+
+                return remainder;
+            }
+        }
+
+        return Set.of();
+    }
+
+    @Benchmark
+    public Set<AvailablePeriod> epochDays() {
+        long fromDay = from.toEpochDay();
+        long toDay = to.toEpochDay();
+
+        for (AvailablePeriod period : available) {
+            if (period.containsPeriod(fromDay, toDay))
+                return period.subtract(fromDay, toDay);
+        }
+
+        return Set.of();
+    }
+}
@@ -0,0 +1,55 @@
+package scc.cache;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheCircuitBreakerTest {
+
+    @Test
+    void exhaustedPoolDoesNotOpenTheCircuit() {
+        CacheCircuitBreaker circuitBreaker = new CacheCircuitBreaker();
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(0); // Every borrow waits for a connection which never frees up
+        config.setMaxWait(Duration.ofMillis(10));
+
+        try (RedisCache.GuardedJedisPool pool = new RedisCache.GuardedJedisPool(config, "127.0.0.1", unusedPort(), 100, circuitBreaker)) {
+            for (int i = 0; i < 10; i++) {
+                JedisException e = assertThrows(JedisException.class, pool::getResource);
+                assertFalse(e instanceof JedisConnectionException);
+            }
+        }
+
+        assertFalse(circuitBreaker.isOpen());
+    }
+
+    @Test
+    void refusedConnectionsOpenTheCircuit() {
+        CacheCircuitBreaker circuitBreaker = new CacheCircuitBreaker();
+
+        try (RedisCache.GuardedJedisPool pool = new RedisCache.GuardedJedisPool(new JedisPoolConfig(), "127.0.0.1", unusedPort(), 100, circuitBreaker)) {
+            for (int i = 0; i < 10 && !circuitBreaker.isOpen(); i++) {
+                assertThrows(JedisConnectionException.class, pool::getResource);
+            }
+        }
+
+        assertTrue(circuitBreaker.isOpen());
+    }
+
+    private static int unusedPort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
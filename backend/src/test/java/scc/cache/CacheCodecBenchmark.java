@@ -0,0 +1,57 @@
+package scc.cache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scc.data.house.HouseDAO;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding cost of a cached house with each codec. The sizes of the entries are checked by CacheCodecTest.
+ * Run with: mvn test-compile exec:exec -Pbenchmarks -Djmh.args="CacheCodecBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheCodecBenchmark {
+    @Param({"json", "smile"})
+    public String codec;
+
+    // Length of the house description, the largest field of a house
+    @Param({"200", "3000"})
+    public int descriptionLength;
+
+    private CacheCodec cacheCodec;
+    private HouseDAO house;
+    private byte[] entry;
+
+    @Setup
+    public void setUp() throws IOException {
+        cacheCodec = "json".equals(codec) ? JsonCacheCodec.INSTANCE : SmileCacheCodec.INSTANCE;
+        house = SampleHouses.house(descriptionLength, 12);
+        entry = cacheCodec.encode(house);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return cacheCodec.encode(house);
+    }
+
+    @Benchmark
+    public HouseDAO decode() throws IOException {
+        return cacheCodec.decode(entry, HouseDAO.class);
+    }
+}
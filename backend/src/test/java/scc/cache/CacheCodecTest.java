@@ -0,0 +1,52 @@
+package scc.cache;
+
+import org.junit.jupiter.api.Test;
+import scc.data.house.HouseDAO;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheCodecTest {
+
+    // The houses of CacheCodecBenchmark, whose timings are read alongside these sizes
+    @Test
+    void smileEntriesAreSmallerThanJson() throws IOException {
+        HouseDAO small = SampleHouses.house(200, 12);
+        HouseDAO large = SampleHouses.house(3000, 12);
+
+        // Below the compression threshold Smile only saves the repeated field names
+        assertTrue(SmileCacheCodec.INSTANCE.encode(small).length < JsonCacheCodec.INSTANCE.encode(small).length);
+        // Above it the deflated entry is a fraction of the json
+        assertTrue(SmileCacheCodec.INSTANCE.encode(large).length * 2 < JsonCacheCodec.INSTANCE.encode(large).length);
+    }
+
+    @Test
+    void codecsReadEachOthersEntries() throws IOException {
+        for (HouseDAO house : new HouseDAO[]{SampleHouses.house(200, 4), SampleHouses.house(3000, 12)}) {
+            for (CacheCodec writer : new CacheCodec[]{SmileCacheCodec.INSTANCE, JsonCacheCodec.INSTANCE}) {
+                for (CacheCodec reader : new CacheCodec[]{SmileCacheCodec.INSTANCE, JsonCacheCodec.INSTANCE}) {
+                    assertSameHouse(house, reader.decode(writer.encode(house), HouseDAO.class));
+                }
+            }
+        }
+    }
+
+    @Test
+    void legacyJsonTextIsReadable() throws IOException {
+        HouseDAO house = SampleHouses.house(200, 4);
+        byte[] legacy = CacheMappers.json().writeValueAsString(house).getBytes(StandardCharsets.UTF_8);
+
+        assertSameHouse(house, SmileCacheCodec.INSTANCE.decode(legacy, HouseDAO.class));
+    }
+
+    private static void assertSameHouse(HouseDAO expected, HouseDAO actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getDescription(), actual.getDescription());
+        assertEquals(expected.getPhotoIDs(), actual.getPhotoIDs());
+        assertEquals(expected.getAvailablePeriods().size(), actual.getAvailablePeriods().size());
+        assertEquals(expected.getVersion(), actual.getVersion());
+    }
+}
@@ -0,0 +1,51 @@
+package scc.cache;
+
+import org.junit.jupiter.api.Test;
+import scc.utils.Constants;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HotKeysTest {
+
+    @Test
+    void keyBecomesHotAtTheThreshold() {
+        HotKeys hotKeys = new HotKeys();
+        for (int i = 1; i < Constants.hotKeyThreshold; i++) {
+            assertFalse(hotKeys.recordRead("house-1"));
+        }
+
+        assertTrue(hotKeys.recordRead("house-1"));
+        assertFalse(hotKeys.recordRead("house-2"));
+    }
+
+    @Test
+    void concurrentReadsAreAllCounted() throws Exception {
+        HotKeys hotKeys = new HotKeys();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            // Each thread reads the key once less than needed on its own, only the sum of all reads makes it hot
+            List<Future<?>> readers = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                readers.add(executor.submit(() -> {
+                    for (int i = 1; i < Constants.hotKeyThreshold; i++) {
+                        hotKeys.recordRead("house-1");
+                    }
+                }));
+            }
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(hotKeys.recordRead("house-1"));
+    }
+}
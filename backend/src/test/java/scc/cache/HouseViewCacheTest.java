@@ -0,0 +1,35 @@
+package scc.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import scc.data.house.HouseDAO;
+import scc.persistence.db.mongo.MongoHouseCollection;
+import scc.persistence.db.mongo.TestDatabase;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The cached view of a house, as served to the clients. Runs without Redis, against the near cache alone.
+ */
+class HouseViewCacheTest {
+
+    @Test
+    void readerHoldingADeletedHouseDoesNotCacheItsView() {
+        try (TestDatabase db = new TestDatabase()) {
+            MongoHouseCollection houses = db.houses();
+            HouseService houseService = new HouseService(houses, new ObjectMapper());
+
+            HouseDAO house = SampleHouses.house(200, 4);
+            house.setId("house-" + System.nanoTime());
+            db.insert(house);
+            assertTrue(houseService.getViewByID(house.getId()).isPresent());
+
+            // A reader loaded the house just before the delete, and fills the view cache just after it
+            HouseDAO read = houses.getByID(house.getId()).getItem().orElseThrow();
+            houseService.deleteByID(house.getId());
+            houseService.fillViewCache(read);
+
+            assertTrue(houseService.getViewByID(house.getId()).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package scc.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import scc.data.house.Address;
+import scc.data.house.AvailablePeriod;
+import scc.data.house.HouseDAO;
+import scc.persistence.db.HouseContainer;
+import scc.persistence.db.mongo.TestDatabase;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Bookings racing with the other writes of the same house. Every write of a house goes through a
+ * compare-and-set on its version, so no write may bring back a period which was booked meanwhile.
+ * Periods run from the day of arrival to the day of departure, a booking takes the nights in between.
+ */
+class HouseWriteConcurrencyTest {
+    private static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+    private static final int NIGHTS = 120;
+    private static final int BOOKERS = 6;
+    private static final int PHOTO_UPLOADERS = 2;
+    private static final int BOOKINGS_PER_THREAD = 40;
+    private static final int PHOTOS_PER_THREAD = 20;
+
+    @Test
+    void concurrentBookingsAndEditsNeverDoubleBook() throws Exception {
+        try (TestDatabase db = new TestDatabase()) {
+            HouseContainer houses = db.atomicHouses();
+            HouseService houseService = new HouseService(houses, new ObjectMapper());
+            BookingEngine bookingEngine = new BookingEngine(houseService, houses);
+
+            HouseDAO house = new HouseDAO();
+            house.setId("house-" + System.nanoTime());
+            house.setOwnerID("owner");
+            house.setName("Riverside apartment");
+            house.setAddress(new Address("Rua Augusta 120", "Lisboa", "Portugal"));
+            house.setAvailablePeriods(Set.of(new AvailablePeriod(FIRST_DAY.toString(), FIRST_DAY.plusDays(NIGHTS).toString(), 100f, null)));
+            house.setVersion(1);
+            db.insert(house);
+            String id = house.getId();
+
+            List<LocalDate[]> booked = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger photos = new AtomicInteger();
+            CyclicBarrier start = new CyclicBarrier(BOOKERS + PHOTO_UPLOADERS);
+            List<Callable<Void>> writers = new ArrayList<>();
+
+            for (int t = 0; t < BOOKERS; t++) {
+                writers.add(() -> {
+                    start.await();
+                    for (int i = 0; i < BOOKINGS_PER_THREAD; i++) {
+                        LocalDate from = FIRST_DAY.plusDays(ThreadLocalRandom.current().nextInt(NIGHTS - 3));
+                        LocalDate to = from.plusDays(1 + ThreadLocalRandom.current().nextInt(3));
+                        if (bookingEngine.reserve(id, from, to).getStatusCode() == 200)
+                            booked.add(new LocalDate[]{from, to});
+                    }
+                    return null;
+                });
+            }
+            for (int t = 0; t < PHOTO_UPLOADERS; t++) {
+                writers.add(() -> {
+                    start.await();
+                    for (int i = 0; i < PHOTOS_PER_THREAD; i++) {
+                        ServiceResponse<HouseDAO> response = houseService.update(id, current -> {
+                            List<String> photoIDs = new ArrayList<>(current.getPhotoIDs());
+                            photoIDs.add("photo-" + System.nanoTime());
+                            current.setPhotoIDs(photoIDs);
+                            return current;
+                        });
+                        if (response.getStatusCode() == 200)
+                            photos.incrementAndGet();
+                    }
+                    return null;
+                });
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(writers.size());
+            try {
+                for (Future<Void> writer : executor.invokeAll(writers)) {
+                    writer.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            assertFalse(booked.isEmpty());
+
+            // No night was booked twice
+            boolean[] taken = new boolean[NIGHTS];
+            for (LocalDate[] booking : booked) {
+                for (LocalDate night = booking[0]; night.isBefore(booking[1]); night = night.plusDays(1)) {
+                    int index = (int) (night.toEpochDay() - FIRST_DAY.toEpochDay());
+                    assertFalse(taken[index], "Booked twice: " + night);
+                    taken[index] = true;
+                }
+            }
+
+            // The stored house offers exactly the nights not booked, and kept every photo
+            HouseDAO stored = houses.getByID(id).getItem().orElseThrow();
+            boolean[] available = new boolean[NIGHTS];
+            for (AvailablePeriod period : stored.getAvailablePeriods()) {
+                for (long night = period.startDay(); night < period.endDay(); night++) {
+                    int index = (int) (night - FIRST_DAY.toEpochDay());
+                    assertFalse(available[index], "Offered twice: " + FIRST_DAY.plusDays(index));
+                    available[index] = true;
+                }
+            }
+            for (int night = 0; night < NIGHTS; night++) {
+                assertTrue(available[night] != taken[night], "Night of " + FIRST_DAY.plusDays(night) + " both booked and available, or neither");
+            }
+            assertEquals(photos.get(), stored.getPhotoIDs().size());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package scc.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NearCacheTest {
+
+    @Test
+    void hitsReportTheRemoteTtl() {
+        NearCache cache = NearCache.forPrefix("near-cache-test:");
+        cache.put("house-1", "house", System.currentTimeMillis() + 60_000);
+        cache.put("house-2", "house");
+
+        long ttl = cache.getEntry("house-1").get().getRemoteTtlMillis();
+        assertTrue(ttl > 50_000 && ttl <= 60_000);
+        assertTrue(cache.getEntry("house-2").get().getRemoteTtlMillis() < 0);
+    }
+
+    @Test
+    void replaceKeepsAnEntryWrittenMeanwhile() {
+        NearCache cache = NearCache.forPrefix("near-cache-test:");
+        cache.put("house-3", "read");
+        Object seen = cache.peek("house-3");
+
+        cache.put("house-3", "written");
+
+        assertFalse(cache.replace("house-3", seen, "refreshed", 0));
+        assertEquals("written", cache.get("house-3").get());
+        assertTrue(cache.replace("house-3", "written", "refreshed", 0));
+    }
+}
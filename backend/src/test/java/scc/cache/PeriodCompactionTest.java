@@ -0,0 +1,66 @@
+package scc.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import scc.data.house.AvailablePeriod;
+import scc.data.house.HouseDAO;
+import scc.persistence.db.HouseContainer;
+import scc.persistence.db.mongo.TestDatabase;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PeriodCompactionTest {
+
+    @Test
+    void houseFailingToCompactDoesNotStopTheRun() throws Exception {
+        try (TestDatabase db = new TestDatabase()) {
+            String prefix = "house-" + System.nanoTime() + "-";
+            for (String name : new String[]{"a", "bad", "c"}) {
+                HouseDAO house = SampleHouses.house(200, 1);
+                house.setId(prefix + name);
+                house.setAvailablePeriods(Set.of(
+                        new AvailablePeriod("2030-01-01", "2030-01-05", 100f, null),
+                        new AvailablePeriod("2030-01-05", "2030-01-10", 100f, null)));
+                db.insert(house);
+            }
+
+            HouseContainer houses = failingToReplace(db.atomicHouses(), prefix + "bad");
+            ObjectMapper mapper = new ObjectMapper();
+            PeriodCompaction compaction = new PeriodCompaction(new HouseService(houses, mapper), houses, mapper);
+
+            assertTrue(compaction.start());
+            for (int i = 0; i < 200 && compaction.getReport().isRunning(); i++) {
+                Thread.sleep(50);
+            }
+
+            PeriodCompaction.Report report = compaction.getReport();
+            assertFalse(report.isRunning());
+            assertNull(report.getError());
+            assertEquals(3, report.getHousesScanned());
+            assertEquals(2, report.getHousesCompacted());
+            assertEquals(1, report.getHousesFailed());
+            assertEquals(1, houses.getByID(prefix + "a").getItem().orElseThrow().getAvailablePeriods().size());
+            assertEquals(2, houses.getByID(prefix + "bad").getItem().orElseThrow().getAvailablePeriods().size());
+        }
+    }
+
+    private static HouseContainer failingToReplace(HouseContainer houses, String id) {
+        return (HouseContainer) Proxy.newProxyInstance(HouseContainer.class.getClassLoader(), new Class<?>[]{HouseContainer.class}, (proxy, method, args) -> {
+            if (method.getName().equals("replaceIfVersion") && ((HouseDAO) args[0]).getId().equals(id))
+                throw new IllegalStateException("Document too large");
+
+            try {
+                return method.invoke(houses, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+}
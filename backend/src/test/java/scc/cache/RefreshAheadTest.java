@@ -0,0 +1,73 @@
+package scc.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import scc.data.house.HouseDAO;
+import scc.persistence.db.HouseContainer;
+import scc.persistence.db.mongo.TestDatabase;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Refreshing a hot entry ahead of its expiry never replaces an entry written meanwhile.
+ * Runs without Redis, against the near cache alone.
+ */
+class RefreshAheadTest {
+
+    @Test
+    void writeBetweenTheReadAndTheReplaceOfARefreshIsKept() throws Exception {
+        try (TestDatabase db = new TestDatabase()) {
+            CountDownLatch refreshRead = new CountDownLatch(1);
+            CountDownLatch written = new CountDownLatch(1);
+            // The thread running the refresh, set once it starts
+            Thread[] refreshing = new Thread[1];
+
+            // The refresh reads the house, then waits for the write before caching what it read
+            HouseContainer houses = pausingAfterRead(db.atomicHouses(), refreshing, refreshRead, written);
+            HouseService houseService = new HouseService(houses, new ObjectMapper());
+
+            HouseDAO house = SampleHouses.house(200, 4);
+            house.setId("house-" + System.nanoTime());
+            db.insert(house);
+            assertEquals(house.getName(), houseService.getByID(house.getId()).getItem().orElseThrow().getName());
+
+            refreshing[0] = new Thread(() -> houseService.refresh(house.getId()));
+            refreshing[0].start();
+            assertTrue(refreshRead.await(10, TimeUnit.SECONDS));
+
+            ServiceResponse<HouseDAO> update = houseService.update(house.getId(), current -> {
+                current.setName("Renamed apartment");
+                return current;
+            });
+            assertEquals(200, update.getStatusCode());
+            written.countDown();
+            refreshing[0].join(10_000);
+
+            assertEquals("Renamed apartment", houseService.getByID(house.getId()).getItem().orElseThrow().getName());
+        }
+    }
+
+    private static HouseContainer pausingAfterRead(HouseContainer houses, Thread[] refreshing, CountDownLatch read, CountDownLatch resume) {
+        return (HouseContainer) Proxy.newProxyInstance(HouseContainer.class.getClassLoader(), new Class<?>[]{HouseContainer.class}, (proxy, method, args) -> {
+            Object result;
+            try {
+                result = method.invoke(houses, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+
+            if (method.getName().equals("getByID") && Thread.currentThread() == refreshing[0]) {
+                read.countDown();
+                resume.await(10, TimeUnit.SECONDS);
+            }
+
+            return result;
+        });
+    }
+}
@@ -0,0 +1,63 @@
+package scc.cache;
+
+import scc.data.house.Address;
+import scc.data.house.AvailablePeriod;
+import scc.data.house.HouseDAO;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Houses shaped like the ones the application stores, generated from a fixed seed
+ */
+class SampleHouses {
+    private static final String[] WORDS = {
+            "bright", "quiet", "apartment", "with", "a", "view", "over", "the", "river", "and", "old", "town",
+            "two", "bedrooms", "kitchen", "balcony", "close", "to", "metro", "beach", "restaurants", "shops",
+            "renovated", "in", "spacious", "living", "room", "sofa", "bed", "for", "guests", "wifi", "parking"
+    };
+
+    private SampleHouses() {}
+
+    /**
+     * @param descriptionLength approximate length of the free text description
+     * @param periods number of available periods, one week each with a week between them
+     */
+    static HouseDAO house(int descriptionLength, int periods) {
+        Random random = new Random(descriptionLength * 31L + periods);
+
+        StringBuilder description = new StringBuilder();
+        while (description.length() < descriptionLength) {
+            description.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+
+        List<String> photoIDs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            photoIDs.add(Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong()));
+        }
+
+        Set<AvailablePeriod> available = new HashSet<>();
+        LocalDate start = LocalDate.of(2024, 1, 1);
+        for (int i = 0; i < periods; i++) {
+            LocalDate from = start.plusWeeks(2L * i);
+            available.add(new AvailablePeriod(from.toString(), from.plusDays(6).toString(),
+                    80f + random.nextInt(40), i % 3 == 0 ? 60f : null));
+        }
+
+        HouseDAO house = new HouseDAO();
+        house.setId("house-" + random.nextInt(1_000_000));
+        house.setOwnerID("user-" + random.nextInt(1_000_000));
+        house.setName("Riverside apartment");
+        house.setAddress(new Address("Rua Augusta 120", "Lisboa", "Portugal"));
+        house.setDescription(description.toString());
+        house.setPhotoIDs(photoIDs);
+        house.setAvailablePeriods(available);
+        house.setVersion(3);
+
+        return house;
+    }
+}
@@ -0,0 +1,77 @@
+package scc.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import scc.persistence.db.HouseContainer;
+import scc.persistence.db.RentalContainer;
+import scc.persistence.db.UserContainer;
+import scc.persistence.db.mongo.TestDatabase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per request of the services a resource uses, here those of RentalResource: built for every
+ * request as the resources used to, or taken from a graph built once as ServiceRegistry does.
+ * Run with -prof gc for the bytes allocated per request (gc.alloc.rate.norm):
+ * mvn test-compile exec:exec -Pbenchmarks -Djmh.args="ServiceGraphBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServiceGraphBenchmark {
+    private TestDatabase db;
+    // The containers were shared before too, through MongoDBLayer
+    private HouseContainer houses;
+    private RentalContainer rentals;
+    private UserContainer users;
+
+    private HouseService houseService;
+    private RentalService rentalService;
+    private UserService userService;
+
+    @Setup
+    public void setUp() {
+        db = new TestDatabase();
+        houses = db.houses();
+        rentals = db.rentals();
+        users = db.users();
+
+        houseService = new HouseService(houses, new ObjectMapper());
+        rentalService = new RentalService(rentals);
+        userService = new UserService(users, houseService, rentalService);
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.close();
+    }
+
+    // Each service built its own mapper, and UserService its own HouseService and RentalService
+    @Benchmark
+    public void perRequest(Blackhole blackhole) {
+        blackhole.consume(new HouseService(houses, new ObjectMapper()));
+        blackhole.consume(new RentalService(rentals));
+        blackhole.consume(new UserService(users, new HouseService(houses, new ObjectMapper()), new RentalService(rentals)));
+    }
+
+    @Benchmark
+    public void shared(Blackhole blackhole) {
+        blackhole.consume(houseService);
+        blackhole.consume(rentalService);
+        blackhole.consume(userService);
+    }
+}
@@ -0,0 +1,35 @@
+package scc.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs without Redis, so the revocation list is never loaded
+ */
+class SessionTokensTest {
+
+    @Test
+    void tokensAreAcceptedUntilTheRevocationsAreLoaded() {
+        SessionTokens tokens = new SessionTokens("test-secret");
+        String token = tokens.issue("user-1");
+
+        assertEquals(Optional.of("user-1"), tokens.verify(token));
+        assertTrue(tokens.verify(token.substring(0, token.length() - 2) + "xx").isEmpty());
+    }
+
+    @Test
+    void revocationsOfThisNodeAreEnforcedBeforeTheListIsLoaded() {
+        SessionTokens tokens = new SessionTokens("test-secret");
+        String loggedOut = tokens.issue("user-1");
+        String other = tokens.issue("user-2");
+
+        tokens.revoke(loggedOut);
+
+        assertTrue(tokens.verify(loggedOut).isEmpty());
+        assertEquals(Optional.of("user-2"), tokens.verify(other));
+    }
+}
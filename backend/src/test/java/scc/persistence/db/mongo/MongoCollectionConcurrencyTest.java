@@ -0,0 +1,150 @@
+package scc.persistence.db.mongo;
+
+import org.junit.jupiter.api.Test;
+import scc.cache.ServiceResponse;
+import scc.data.RentalDAO;
+import scc.persistence.db.Page;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The Mongo collections hold no lock of their own: calls from many threads run in parallel
+ * on the pooled driver, and readers never see a document half way through a write.
+ */
+class MongoCollectionConcurrencyTest {
+    private static final int RENTALS = 20;
+    private static final int READS_PER_THREAD = 40;
+    private static final long LATENCY_MILLIS = 5;
+
+    @Test
+    void throughputScalesWithThreads() throws Exception {
+        try (TestDatabase db = new TestDatabase(LATENCY_MILLIS)) {
+            MongoRentalCollection rentals = db.rentals();
+            for (int i = 0; i < RENTALS; i++) {
+                rentals.upsert(rental("rental-" + i, "house-0", 1f));
+            }
+
+            readsPerSecond(rentals, 4); // Warms up the connection pool
+            double serial = readsPerSecond(rentals, 1);
+            double parallel = readsPerSecond(rentals, 8);
+
+            // Calls serialized on the collection would stay at the single thread rate
+            assertTrue(parallel > 3 * serial,
+                    String.format("1 thread: %.0f reads/s, 8 threads: %.0f reads/s", serial, parallel));
+        }
+    }
+
+    @Test
+    void readersNeverSeeDocumentsBeingReplaced() throws Exception {
+        try (TestDatabase db = new TestDatabase()) {
+            MongoRentalCollection rentals = db.rentals();
+            for (int i = 0; i < RENTALS; i++) {
+                rentals.upsert(rental("rental-" + i, "house-0", 0f));
+            }
+
+            AtomicBoolean writing = new AtomicBoolean(true);
+            ExecutorService pool = Executors.newFixedThreadPool(8);
+            List<Future<?>> tasks = new ArrayList<>();
+
+            for (int writer = 0; writer < 4; writer++) {
+                int first = writer;
+                tasks.add(pool.submit(() -> {
+                    for (int round = 1; round <= 25; round++) {
+                        for (int i = first; i < RENTALS; i += 4) {
+                            assertEquals(201, rentals.upsert(rental("rental-" + i, "house-0", round)).getStatusCode());
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            for (int reader = 0; reader < 4; reader++) {
+                tasks.add(pool.submit(() -> {
+                    while (writing.get()) {
+                        for (int i = 0; i < RENTALS; i++) {
+                            ServiceResponse<RentalDAO> response = rentals.getByID("rental-" + i);
+                            assertEquals(200, response.getStatusCode(), "rental-" + i + " missing while being replaced");
+                            assertEquals("house-0", response.getItem().get().getHouseID());
+                        }
+                        assertEquals(RENTALS, allPages(rentals, 7).size());
+                    }
+                    return null;
+                }));
+            }
+
+            for (int i = 0; i < 4; i++) {
+                tasks.get(i).get(60, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+            for (Future<?> task : tasks) {
+                task.get(60, TimeUnit.SECONDS);
+            }
+            pool.shutdown();
+
+            for (int i = 0; i < RENTALS; i++) {
+                assertEquals(25f, rentals.getByID("rental-" + i).getItem().get().getPrice());
+            }
+            assertEquals(RENTALS, allPages(rentals, 7).size());
+        }
+    }
+
+    // Walks all pages of the rentals of the house, failing on an id seen twice
+    private static Set<String> allPages(MongoRentalCollection rentals, int limit) {
+        Set<String> ids = new HashSet<>();
+        String cursor = null;
+        do {
+            Page<RentalDAO> page = rentals.getRentalsByHouseID("house-0", cursor, limit).getItem().get();
+            for (RentalDAO rental : page.getItems()) {
+                assertTrue(ids.add(rental.getId()), "rental " + rental.getId() + " paged twice");
+            }
+            cursor = page.getNextCursor().orElse(null);
+        } while (cursor != null);
+
+        return ids;
+    }
+
+    private static double readsPerSecond(MongoRentalCollection rentals, int threads) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Callable<Object>> readers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            readers.add(() -> {
+                for (int i = 0; i < READS_PER_THREAD; i++) {
+                    assertEquals(200, rentals.getByID("rental-" + (i % RENTALS)).getStatusCode());
+                }
+                return null;
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Future<Object> reader : pool.invokeAll(readers)) {
+            reader.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        return threads * READS_PER_THREAD / seconds;
+    }
+
+    private static RentalDAO rental(String id, String houseID, float price) {
+        RentalDAO rental = new RentalDAO();
+        rental.setId(id);
+        rental.setHouseID(houseID);
+        rental.setTenantID("tenant");
+        rental.setStartDate("2024-01-01");
+        rental.setEndDate("2024-01-05");
+        rental.setPrice(price);
+
+        return rental;
+    }
+}
@@ -0,0 +1,55 @@
+package scc.persistence.db.mongo;
+
+import com.mongodb.client.MongoCollection;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import scc.data.UserDAO;
+import scc.data.house.HouseDAO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * An index which can not be created at startup does not keep the other declared indexes from being created
+ */
+class MongoIndexTest {
+
+    @Test
+    void duplicateUsernamesLeaveTheOtherIndexesInPlace() {
+        try (TestDatabase db = new TestDatabase()) {
+            MongoCollection<Document> users = db.datastore.getDatabase().getCollection("users");
+            MongoCollection<Document> houses = db.datastore.getDatabase().getCollection("houses");
+
+            // Data written while the usernames were not unique yet
+            users.drop();
+            houses.drop();
+            users.insertOne(new Document("id", "user-1").append("username", "ana"));
+            users.insertOne(new Document("id", "user-2").append("username", "ana"));
+
+            db.restart();
+
+            Optional<Document> username = index(users, "username");
+            assertTrue(username.isPresent(), "username is indexed without the unique constraint");
+            assertFalse(username.get().getBoolean("unique", false));
+            assertTrue(index(users, "id").orElseThrow().getBoolean("unique", false));
+            assertTrue(index(houses, "house_id").orElseThrow().getBoolean("unique", false));
+            assertTrue(index(houses, "owner_id", "_id").isPresent());
+        }
+    }
+
+    private static Optional<Document> index(MongoCollection<Document> collection, String... fields) {
+        List<Document> found = new ArrayList<>();
+        for (Document index : collection.listIndexes()) {
+            if (new ArrayList<>(index.get("key", Document.class).keySet()).equals(List.of(fields)))
+                found.add(index);
+        }
+
+        assertTrue(found.size() <= 1);
+        return found.stream().findFirst();
+    }
+}
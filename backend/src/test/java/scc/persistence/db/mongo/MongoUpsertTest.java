@@ -0,0 +1,96 @@
+package scc.persistence.db.mongo;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.junit.jupiter.api.Test;
+import scc.data.QuestionsDAO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Upserts keyed on the business id never leave two documents of the same id behind
+ */
+class MongoUpsertTest {
+    private static final int THREADS = 8;
+    private static final int IDS = 50;
+
+    @Test
+    void concurrentUpsertsOfNewIdsKeepOneDocumentEach() throws Exception {
+        try (TestDatabase db = new TestDatabase()) {
+            MongoQuestionsCollection questions = db.questions();
+            CyclicBarrier start = new CyclicBarrier(THREADS);
+            ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+            List<Callable<Object>> writers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                String writer = "writer-" + t;
+                writers.add(() -> {
+                    for (int i = 0; i < IDS; i++) {
+                        if (i % 10 == 0)
+                            start.await(); // Every writer inserts the same new ids at the same time
+                        assertEquals(201, questions.upsert(question("question-" + i, writer)).getStatusCode());
+                    }
+                    return null;
+                });
+            }
+
+            for (Future<Object> writer : pool.invokeAll(writers)) {
+                writer.get();
+            }
+            pool.shutdown();
+
+            for (int i = 0; i < IDS; i++) {
+                assertEquals(1, questions.documents.countDocuments(new BsonDocument("id", new BsonString("question-" + i))));
+            }
+        }
+    }
+
+    @Test
+    void secondDocumentOfAnIdIsRejected() {
+        try (TestDatabase db = new TestDatabase()) {
+            MongoQuestionsCollection questions = db.questions();
+            questions.upsert(question("question-0", "writer-0"));
+
+            MongoWriteException e = assertThrows(MongoWriteException.class,
+                    () -> questions.documents.insertOne(questions.encode(question("question-0", "writer-1"))));
+            assertEquals(ErrorCategory.DUPLICATE_KEY, e.getError().getCategory());
+        }
+    }
+
+    @Test
+    void upsertLosingTheInsertRaceReplacesTheWinner() {
+        try (TestDatabase db = new TestDatabase()) {
+            MongoQuestionsCollection questions = db.questions();
+            AtomicInteger attempts = new AtomicInteger();
+
+            // The first attempt finds no document and inserts, but another writer inserted the id just before
+            questions.retryOnDuplicateID(() -> {
+                if (attempts.incrementAndGet() == 1) {
+                    questions.upsert(question("question-0", "other-writer"));
+                    return questions.documents.insertOne(questions.encode(question("question-0", "writer")));
+                }
+                return questions.upsert(question("question-0", "writer"));
+            });
+
+            assertEquals(2, attempts.get());
+            assertEquals(1, questions.documents.countDocuments(new BsonDocument("id", new BsonString("question-0"))));
+            assertEquals("writer", questions.getByID("question-0").getItem().get().getUserId());
+        }
+    }
+
+    private static QuestionsDAO question(String id, String userID) {
+        return new QuestionsDAO(id, "house-0", userID, "Is there parking?", "2024-01-01.10-00-00", null, "", null);
+    }
+}
@@ -0,0 +1,193 @@
+package scc.persistence.db.mongo;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import dev.morphia.Datastore;
+import scc.cache.ServiceResponse;
+import scc.data.house.HouseDAO;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory Mongo server for the tests, spoken to over the wire protocol by the real driver and Morphia.
+ * Optionally every request is delayed on its way to the server, standing in for the round trip
+ * to a remote database, so tests can tell calls running in parallel from calls waiting on each other.
+ */
+public class TestDatabase implements AutoCloseable {
+    private final MongoServer server;
+    private final LatencyProxy proxy;
+    private final MongoClient client;
+    final Datastore datastore;
+
+    public TestDatabase() {
+        this(0);
+    }
+
+    public TestDatabase(long latencyMillis) {
+        server = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = server.bind();
+
+        proxy = latencyMillis > 0 ? new LatencyProxy(address, latencyMillis) : null;
+        int port = proxy != null ? proxy.getPort() : address.getPort();
+
+        client = MongoClients.create(MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString("mongodb://127.0.0.1:" + port))
+                .build());
+        datastore = MongoDBLayer.createDatastore(client);
+    }
+
+    // Maps the entities against the same database again, as a restarted node does
+    Datastore restart() {
+        return MongoDBLayer.createDatastore(client);
+    }
+
+    // Stores the entity as it is, e.g. for houses the in-memory server cannot upsert with an update pipeline
+    public <T> T insert(T entity) {
+        return datastore.save(entity);
+    }
+
+    public MongoHouseCollection houses() {
+        return new MongoHouseCollection(datastore);
+    }
+
+    /**
+     * Houses whose single document reads and replaces do not interleave. The in-memory server replaces
+     * a stored document in place, so a concurrent read may see the new version with the old periods,
+     * which a real server never returns. Calls of different threads still interleave between each other.
+     */
+    public MongoHouseCollection atomicHouses() {
+        return new AtomicHouseCollection(datastore);
+    }
+
+    public MongoRentalCollection rentals() {
+        return new MongoRentalCollection(datastore);
+    }
+
+    public MongoQuestionsCollection questions() {
+        return new MongoQuestionsCollection(datastore);
+    }
+
+    public MongoUserCollection users() {
+        return new MongoUserCollection(datastore);
+    }
+
+    @Override
+    public void close() {
+        client.close();
+        if (proxy != null)
+            proxy.close();
+        server.shutdownNow();
+    }
+
+    /**
+     * Relays every connection to the server, holding back each chunk sent by the client for the latency
+     */
+    private static class LatencyProxy implements AutoCloseable {
+        private final ServerSocket socket;
+        private final InetSocketAddress target;
+        private final long latencyMillis;
+
+        LatencyProxy(InetSocketAddress target, long latencyMillis) {
+            this.target = target;
+            this.latencyMillis = latencyMillis;
+            try {
+                socket = new ServerSocket(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            daemon(this::accept, "latency-proxy");
+        }
+
+        int getPort() {
+            return socket.getLocalPort();
+        }
+
+        private void accept() {
+            while (!socket.isClosed()) {
+                try {
+                    Socket client = socket.accept();
+                    Socket server = new Socket(target.getAddress(), target.getPort());
+                    client.setTcpNoDelay(true);
+                    server.setTcpNoDelay(true);
+                    daemon(() -> pump(client, server, latencyMillis), "latency-proxy-request");
+                    daemon(() -> pump(server, client, 0), "latency-proxy-reply");
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private static void pump(Socket from, Socket to, long delayMillis) {
+            byte[] buffer = new byte[64 * 1024];
+            try (from; to) {
+                InputStream in = from.getInputStream();
+                OutputStream out = to.getOutputStream();
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    if (delayMillis > 0)
+                        Thread.sleep(delayMillis);
+                    out.write(buffer, 0, read);
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException ignored) {
+                // Either side closed the connection
+            }
+        }
+
+        private static void daemon(Runnable runnable, String name) {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already closed
+            }
+        }
+    }
+
+    private static class AtomicHouseCollection extends MongoHouseCollection {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        AtomicHouseCollection(Datastore datastore) {
+            super(datastore);
+        }
+
+        @Override
+        public ServiceResponse<HouseDAO> getByID(String id) {
+            lock.readLock().lock();
+            try {
+                return super.getByID(id);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public ServiceResponse<HouseDAO> replaceIfVersion(HouseDAO house, long expectedVersion) {
+            lock.writeLock().lock();
+            try {
+                return super.replaceIfVersion(house, expectedVersion);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}